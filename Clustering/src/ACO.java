@@ -1,10 +1,16 @@
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Ant Colony Optimization base clustering
  */
 public class ACO extends Clustering{
 
+    /**
+     * Number of rows of the pheromone matrix updated by one fork/join task
+     */
+    private static final int BLOCK_SIZE = 4096;
+
     /**
      * The number of ants in the system
      * Tunable
@@ -30,199 +36,295 @@ public class ACO extends Clustering{
     private double relativeWeight = Driver.relWeight;
 
     /**
-     * The maximum number of iterations to run
+     * Decides when to stop iterating, at most Driver.maxIter iterations
      */
-    private double maxIterations = Driver.maxIter;
+    private Convergence convergence = new Convergence(Driver.maxIter);
 
     /**
      * The rate of decay for pheromones
      */
     private double pheromoneDecay = Driver.decayRate;
 
+    /**
+     * The number of rows in the stratified sample ants are evaluated on, 0 evaluates every row
+     */
+    private int sampleSize = Driver.sampleSize;
+
+    /**
+     * Draws the initial pheromones, the sample, and the seed of every ant's random stream
+     */
+    private Random random = new Random(Driver.seed);
+
+    /**
+     * The number of threads building ant tours
+     */
+    private int numThreads = Driver.numThreads;
+
     @Override
     /**
      * The ACO-based clustering algorithm
      */
-    public int[] cluster(Double[][] data, int numClusters){
-        // the pheromone matrix, initialized to small random values: [0, 0.1]
-        Double[][] pheromones = new Double[data.length][numClusters];
-        for(int dataIter = 0; dataIter < pheromones.length; dataIter++){
-            for(int clusterIter = 0; clusterIter < pheromones[dataIter].length; clusterIter++){
-                pheromones[dataIter][clusterIter] = Math.random() * 0.1;
-            }
+    public int[] cluster(Dataset data, int numClusters){
+        // the pheromone matrix, flat: [i * numClusters + j] holds the pheromone for data point i in cluster j,
+        // initialized to small random values: [0, 0.1]
+        double[] pheromones = new double[data.getNumRows() * numClusters];
+        for(int cellIter = 0; cellIter < pheromones.length; cellIter++){
+            pheromones[cellIter] = this.random.nextDouble() * 0.1;
         }
 
-        // the list of ants
+        // the list of ants, each with its own random stream split off in order so a tour does not depend on
+        // which thread runs it
         ArrayList<Ant> ants = new ArrayList<>();
+        SplittableRandom antRandom = new SplittableRandom(this.random.nextLong());
         for(int antIter = 0; antIter < this.numAnts; antIter++){
-            ants.add(new Ant(new int[data.length][numClusters], new double[numClusters][data[0].length], new int[data.length]));
+            ants.add(new Ant(data.getNumRows(), new double[numClusters][data.getNumAttrs()], antRandom.split()));
         }
 
+        // the ants with the lowest objective values each iteration, lowest first
+        Ant[] elite = new Ant[Math.max(1, Math.min(this.numElite, this.numAnts))];
+
         // the main algorithm loop
         int currentIter = 0;
-        Ant bestAnt = new Ant(new int[data.length][numClusters], new double[numClusters][data[0].length], new int[data.length]);
+        Ant bestAnt = new Ant(data.getNumRows(), new double[numClusters][data.getNumAttrs()]);
         double bestObjectiveValue = Double.MAX_VALUE;
-        do{
-            // print best so far objective value
-            System.out.println("Best-so-far objective value: " + bestObjectiveValue);
-
-            // for each ant, cluster all data points
-            for(int antIter = 0; antIter < ants.size(); antIter++){
-                // reset ant variables
-                ants.get(antIter).resetMemory();
-                ants.get(antIter).resetClusterCenters();
-                ants.get(antIter).resetWeights();
-
-                // randomly sort data indices in a list used to pick data points
-                ArrayList<Integer> availablePoints = new ArrayList<>();
-                for(int pointIter = 0; pointIter < data.length; pointIter++){
-                    availablePoints.add(pointIter);
-                }
-                Collections.shuffle(availablePoints);
-
-                // cluster each data point
-                int loopIter = 0;
-                while(!ants.get(antIter).isMemoryFull()){
-                    // select data point from randomly ordered set
-                    int dataPointIndex = availablePoints.get(loopIter);
-
-                    // choose the cluster
-                    int clusterForPoint;
-                    double exploitVsExplore = Math.random();
-                    if(exploitVsExplore <= this.probExploit){
-                        clusterForPoint = this.exploit(data[dataPointIndex], ants.get(antIter).getClusterCenters(), pheromones[dataPointIndex]);
-                    }
-                    else{
-                        clusterForPoint = this.explore(data[dataPointIndex], ants.get(antIter).getClusterCenters(), pheromones[dataPointIndex]);
-                    }
+        // the best ant's objective value on the current sample, comparable with the estimates of this iteration's ants
+        double bestEstimate = Double.MAX_VALUE;
+        FitnessSample sample = new FitnessSample(data.getNumRows(), this.sampleSize, this.random);
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        this.convergence.start();
+        try{
+            do{
+                // print best so far objective value
+                System.out.println("Best-so-far objective value: " + bestObjectiveValue);
+
+                // every ant builds its tour on its own thread, only reading the pheromones; invoke returns once
+                // all tours are done, so the ants are ranked and the pheromones updated after every tour
+                pool.invoke(new BlockAction(0, ants.size(), (antIter) -> {
+                    this.buildTour(data, ants.get(antIter), pheromones, sample);
+                }));
 
-                    // put point in determined cluster (update weights and memory) and update centers
-                    ants.get(antIter).putPointInCluster(dataPointIndex, clusterForPoint);
-                    ants.get(antIter).calculateClusterCenters(data);
+                // find the elite ants by their objective value, first index is lowest value
+                ACO.selectElite(ants, elite);
 
-                    loopIter++;
+                // compare current best with best so far, keep whichever minimizes objective value
+                // an estimate must beat the best ant's estimate on the same sample and is then confirmed on every row,
+                // and the sample grows when no new best is confirmed
+                boolean confirmed = false;
+                if(currentIter == 0 || elite[0].getCurrentObjectiveValue() < bestEstimate){
+                    double objectiveValue = elite[0].getCurrentObjectiveValue();
+                    if(!sample.isFull()){
+                        objectiveValue = this.evaluateObjectiveFunction(data, null, elite[0].getLabels(), elite[0].getClusterCenters());
+                    }
+                    if(currentIter == 0 || objectiveValue < bestObjectiveValue){
+                        bestAnt.copyFrom(elite[0]);
+                        bestAnt.setCurrentObjectiveValue(objectiveValue);
+                        bestObjectiveValue = bestAnt.getCurrentObjectiveValue();
+                        bestEstimate = elite[0].getCurrentObjectiveValue();
+                        confirmed = true;
+                    }
+                }
+                if(!confirmed && !sample.isFull()){
+                    sample.grow();
+                    System.out.println("Fitness sample grown to " + sample.getRows().length + " rows");
+                    // re-estimate the best ant on the grown sample so the next ants are compared on the same rows
+                    bestEstimate = sample.getScale() * this.evaluateObjectiveFunction(data, sample.getRows(), bestAnt.getLabels(), bestAnt.getClusterCenters());
                 }
 
-                // update objective value
-                ants.get(antIter).setCurrentObjectiveValue(this.evaluateObjectiveFunction(data, ants.get(antIter).getWeights(), ants.get(antIter).getClusterCenters()));
+                // update pheromones
+                this.updatePheromones(pool, pheromones, numClusters, elite);
+
+                currentIter++;
+                this.convergence.recordObjective(bestObjectiveValue);
+                this.convergence.endIteration();
             }
+            while(!this.convergence.isDone());
+        }
+        finally{
+            pool.shutdown();
+        }
+        this.recordConvergence(this.convergence);
 
-            // sort list of ants by their objective value, first index is lowest value
-            Collections.sort(ants);
+        // the best ant's labels are the clusters
+        return bestAnt.getLabels();
+    }
 
-            // compare current best with best so far, keep whichever minimizes objective value
-            if(currentIter == 0 || ants.get(0).getCurrentObjectiveValue() < bestObjectiveValue){
-                bestAnt.setWeights(ants.get(0).getWeights());
-                bestAnt.setClusterCenters(ants.get(0).getClusterCenters());
-                bestAnt.setCurrentObjectiveValue(ants.get(0).getCurrentObjectiveValue());
-                bestObjectiveValue = bestAnt.getCurrentObjectiveValue();
-            }
+    /**
+     * Clusters every data point with one ant and evaluates the result
+     * The ant's own random stream orders the points and makes its choices, and only the ant is written,
+     * so tours of different ants can run at the same time
+     * @param data the data set
+     * @param ant the ant
+     * @param pheromones the pheromone matrix, only read
+     * @param sample the rows the ant is evaluated on
+     */
+    private void buildTour(Dataset data, Ant ant, double[] pheromones, FitnessSample sample){
+        // reset ant variables
+        ant.resetLabels();
+        ant.resetClusterCenters();
 
-            // update pheromones
-            for(int dataIter = 0; dataIter < pheromones.length; dataIter++){
-                for(int clusterIter = 0; clusterIter < pheromones[dataIter].length; clusterIter++){
-                    double temp = (1 - this.pheromoneDecay) * pheromones[dataIter][clusterIter];
-                    for(int eliteAntIter = 0; eliteAntIter < this.numElite; eliteAntIter++){
-                        temp += (1 / ants.get(eliteAntIter).getCurrentObjectiveValue());
-                    }
-                    pheromones[dataIter][clusterIter] = temp;
-                }
-            }
+        // randomly order the data indices used to pick data points, reusing the ant's array
+        int[] availablePoints = ant.shuffleOrder();
 
-            currentIter++;
-        }
-        while(currentIter < this.maxIterations);
-
-        // convert the best ant's weight matrix into an int[] and return
-        int[] finalClusters = new int[bestAnt.getWeights().length];
-        for(int dataIter = 0; dataIter < bestAnt.getWeights().length; dataIter++){
-            for(int clusterIter = 0; clusterIter < bestAnt.getWeights()[dataIter].length; clusterIter++){
-                if(bestAnt.getWeights()[dataIter][clusterIter] == 1){
-                    finalClusters[dataIter] = clusterIter;
-                    break;
-                }
-            }
+        // cluster each data point
+        for(int loopIter = 0; loopIter < availablePoints.length; loopIter++){
+            // select data point from randomly ordered set
+            int dataPointIndex = availablePoints[loopIter];
+
+            // choose the cluster
+            int clusterForPoint = this.chooseCluster(data, dataPointIndex, ant, pheromones);
+
+            // put point in determined cluster (update labels and centers)
+            ant.putPointInCluster(data, dataPointIndex, clusterForPoint);
         }
 
-        return finalClusters;
+        // update objective value, an estimate when evaluating on a sample
+        ant.setCurrentObjectiveValue(sample.getScale() * this.evaluateObjectiveFunction(data, sample.getRows(), ant.getLabels(), ant.getClusterCenters()));
     }
 
     /**
-     * Determines the cluster by exploiting the pheromones
-     * @param datapoint the data point being clustered
-     * @param clusterCenters the cluster center matrix
-     * @return the index of the cluster
+     * Finds the ants with the lowest objective values without sorting every ant
+     * A max-heap of the best ants so far keeps its worst ant on top to be replaced, O(numAnts log numElite),
+     * and is then heap sorted
+     * @param ants the ants
+     * @param elite filled with the elite.length ants with the lowest objective values, lowest first
      */
-    private int exploit(Double[] datapoint, double[][] clusterCenters, Double[] pheromones){
-        int maximizingCluster = 0;
-        double currentMaximum = -1;
-        for(int clusterIter = 0; clusterIter < clusterCenters.length; clusterIter++){
-            double valueToMaximize = pheromones[clusterIter] * Math.pow(this.distanceFromCluster(datapoint, clusterCenters[clusterIter]), this.relativeWeight);
-            if(valueToMaximize > currentMaximum){
-                currentMaximum = valueToMaximize;
-                maximizingCluster = clusterIter;
+    private static void selectElite(ArrayList<Ant> ants, Ant[] elite){
+        int size = 0;
+        for(Ant ant: ants){
+            if(size < elite.length){
+                // sift the new ant up from the bottom of the heap
+                int child = size++;
+                while(child > 0 && elite[(child - 1) / 2].compareTo(ant) < 0){
+                    elite[child] = elite[(child - 1) / 2];
+                    child = (child - 1) / 2;
+                }
+                elite[child] = ant;
+            }
+            else if(ant.compareTo(elite[0]) < 0){
+                // replace the worst elite ant
+                ACO.siftDown(elite, size, ant);
             }
         }
-        return maximizingCluster;
+        // move the worst remaining ant to the back until the heap is sorted lowest first
+        for(int endIter = size - 1; endIter > 0; endIter--){
+            Ant worst = elite[0];
+            ACO.siftDown(elite, endIter, elite[endIter]);
+            elite[endIter] = worst;
+        }
     }
 
     /**
-     * Determines the cluster by exploring the search space
-     * @param datapoint the data point being clustered
-     * @param clusterCenters the cluster center matrix
-     * @return the index of the cluster
+     * places an ant at the top of a max-heap of ants and sifts it down to its place
      */
-    private int explore(Double[] datapoint, double[][] clusterCenters, Double[] pheromones){
-        int maximizingCluster = 0;
-        double currentMaximumProb = -1;
-        for(int clusterProbsIter = 0 ; clusterProbsIter < clusterCenters.length; clusterProbsIter++){
-            double denom = 0;
-            for(int clusterIter = 0; clusterIter < pheromones.length; clusterIter++){
-                denom += (pheromones[clusterIter] * Math.pow(this.distanceFromCluster(datapoint, clusterCenters[clusterProbsIter]), this.relativeWeight));
+    private static void siftDown(Ant[] heap, int size, Ant ant){
+        int parent = 0;
+        while(2 * parent + 1 < size){
+            int child = 2 * parent + 1;
+            if(child + 1 < size && heap[child + 1].compareTo(heap[child]) > 0){
+                child++;
             }
-            double clusterProb = (pheromones[clusterProbsIter] * Math.pow(this.distanceFromCluster(datapoint, clusterCenters[clusterProbsIter]), this.relativeWeight)) / denom;
-            if(clusterProb > currentMaximumProb){
-                currentMaximumProb = clusterProb;
-                maximizingCluster = clusterProbsIter;
+            if(heap[child].compareTo(ant) <= 0){
+                break;
             }
+            heap[parent] = heap[child];
+            parent = child;
         }
-        return maximizingCluster;
+        heap[parent] = ant;
     }
 
     /**
-     * Computes the inverse distance between a data point and its associated cluster center
-     * @param datapoint the data point
-     * @param clusterCenter the cluster center
-     * @return the inverse distance
+     * Evaporates every pheromone and has the elite ants, up to numElite of them, deposit
+     * 1 / objective on the cell of the cluster they put each data point in
+     * The deposits are computed once, then decay and deposit run as one pass over blocks of rows in parallel
+     * @param pool the fork/join pool
+     * @param pheromones the flat pheromone matrix
+     * @param numClusters the number of clusters
+     * @param elite the elite ants, from selectElite
      */
-    private double distanceFromCluster(Double[] datapoint, double[] clusterCenter){
-        double sum = 0;
-        for(int attrIter = 0; attrIter < datapoint.length; attrIter++){
-            sum += Math.pow((datapoint[attrIter] - clusterCenter[attrIter]), 2);
+    private void updatePheromones(ForkJoinPool pool, double[] pheromones, int numClusters, Ant[] elite){
+        int numElite = Math.min(this.numElite, elite.length);
+        int[][] eliteLabels = new int[numElite][];
+        double[] deposits = new double[numElite];
+        for(int eliteAntIter = 0; eliteAntIter < numElite; eliteAntIter++){
+            eliteLabels[eliteAntIter] = elite[eliteAntIter].getLabels();
+            deposits[eliteAntIter] = 1 / elite[eliteAntIter].getCurrentObjectiveValue();
         }
-        return 1 / Math.sqrt(sum);
+        double retained = 1 - this.pheromoneDecay;
+        int numRows = pheromones.length / numClusters;
+        pool.invoke(new BlockAction(0, BlockAction.getNumBlocks(numRows, BLOCK_SIZE), (blockIter) -> {
+            for(int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(numRows, (blockIter + 1) * BLOCK_SIZE); dataIter++){
+                int offset = dataIter * numClusters;
+                for(int clusterIter = 0; clusterIter < numClusters; clusterIter++){
+                    pheromones[offset + clusterIter] *= retained;
+                }
+                for(int eliteAntIter = 0; eliteAntIter < numElite; eliteAntIter++){
+                    pheromones[offset + eliteLabels[eliteAntIter][dataIter]] += deposits[eliteAntIter];
+                }
+            }
+        }));
+    }
+
+    /**
+     * Determines the cluster of a data point: with probability probExploit exploits by taking the cluster with the
+     * highest pheromone times inverse distance to its center raised to the relative weight, otherwise explores by
+     * drawing a cluster with probability proportional to that value (roulette wheel)
+     * Each value is computed once into the ant's buffer and serves as both the numerator and part of the
+     * denominator, so a decision costs O(numClusters * numAttributes)
+     * @param data the data set
+     * @param datapoint the index of the data point being clustered
+     * @param ant the ant clustering the data point
+     * @param pheromones the flat pheromone matrix
+     * @return the index of the cluster
+     */
+    private int chooseCluster(Dataset data, int datapoint, Ant ant, double[] pheromones){
+        double[][] clusterCenters = ant.getClusterCenters();
+        double[] values = ant.getDecisionValues();
+        int offset = datapoint * clusterCenters.length;
+        boolean exploit = ant.getRandom().nextDouble() <= this.probExploit;
+
+        // (1 / distance)^relativeWeight is the squared distance to the power -relativeWeight / 2
+        double exponent = -0.5 * this.relativeWeight;
+        int maximizingCluster = 0;
+        double currentMaximum = -1;
+        double total = 0;
+        for(int clusterIter = 0; clusterIter < clusterCenters.length; clusterIter++){
+            values[clusterIter] = pheromones[offset + clusterIter] * Math.pow(data.distanceSquared(datapoint, clusterCenters[clusterIter]), exponent);
+            total += values[clusterIter];
+            if(values[clusterIter] > currentMaximum){
+                currentMaximum = values[clusterIter];
+                maximizingCluster = clusterIter;
+            }
+        }
+
+        // a point on a center has an infinite value, so it can only be exploited
+        if(exploit || !(total > 0) || Double.isInfinite(total)){
+            return maximizingCluster;
+        }
+        double target = ant.getRandom().nextDouble() * total;
+        for(int clusterIter = 0; clusterIter < clusterCenters.length; clusterIter++){
+            target -= values[clusterIter];
+            if(target < 0){
+                return clusterIter;
+            }
+        }
+        // rounding left the target just short of the total
+        return maximizingCluster;
     }
 
     /**
      * Computes the objective function of an ant
      * @param data the data set
-     * @param weights the ants weight matrix
+     * @param rows the rows to sum over, null for every row
+     * @param labels the ants labels
      * @param clusterCenters the ants cluster center matrix
-     * @return the ants objective value
+     * @return the ants objective value over the rows
      */
-    private double evaluateObjectiveFunction(Double[][] data, int[][] weights, double[][] clusterCenters){
+    private double evaluateObjectiveFunction(Dataset data, int[] rows, int[] labels, double[][] clusterCenters){
         double objective = 0;
-        for(int dataIter = 0; dataIter < data.length; dataIter++){
-            for(int clusterIter = 0; clusterIter < clusterCenters.length; clusterIter++){
-                if(weights[dataIter][clusterIter] == 1){
-                    double innerSum = 0;
-                    for(int attrIter = 0; attrIter < data[dataIter].length; attrIter++){
-                        innerSum += Math.pow(data[dataIter][attrIter] - clusterCenters[clusterIter][attrIter], 2);
-                    }
-                    objective += Math.sqrt(innerSum);
-                    break;
-                }
-            }
+        int numSamples = rows == null ? data.getNumRows() : rows.length;
+        for(int sampleIter = 0; sampleIter < numSamples; sampleIter++){
+            int dataIter = rows == null ? sampleIter : rows[sampleIter];
+            objective += Math.sqrt(data.distanceSquared(dataIter, clusterCenters[labels[dataIter]]));
         }
         return objective;
     }
@@ -258,4 +360,36 @@ public class ACO extends Clustering{
     public void setRelativeWeight(double relativeWeight) {
         this.relativeWeight = relativeWeight;
     }
+
+    /**
+     * Sets the number of rows in the stratified sample ants are evaluated on
+     * @param sampleSize the starting sample size, 0 evaluates every row
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Sets the number of threads building ant tours
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Sets the seed of the initial pheromones, the sample, and the ants' random streams
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets the convergence policy deciding when to stop iterating
+     * @param convergence the convergence policy
+     */
+    public void setConvergence(Convergence convergence) {
+        this.convergence = convergence;
+    }
 }
@@ -1,16 +1,16 @@
-import com.sun.corba.se.impl.io.TypeMismatchException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 /**
  * Ant object used by ACO
  */
-public class Ant implements Comparable{
+public class Ant implements Comparable<Ant>{
 
     /**
-     * The weight matrix for this ant (dimensions: numDataPoints x numClusters)
-     * a 1 in entry [i][j] indicates data point i is clustered into cluster j
-     * a 0 otherwise
+     * The label vector for this ant (dimension: numDataPoints)
+     * entry [i] holds the cluster data point i is clustered into, -1 if this ant has not clustered it yet
      */
-    private int[][] weights;
+    private int[] labels;
 
     /**
      * The cluster center matrix (dimensions: numClusters x numAttributes)
@@ -20,11 +20,26 @@ public class Ant implements Comparable{
     private double[][] clusterCenters;
 
     /**
-     * A list of data point indices that this ant has clustered already
-     * a 1 in entry [i] indicates that data point i is in this ant's memory
-     * a 0 otherwise
+     * The running sums and counts of the data points in every cluster, so a center is updated in O(numAttributes)
+     * [i][j] contains the sum of attribute j over the data points in cluster i
      */
-    private int[] memory;
+    private double[][] clusterSums;
+    private int[] clusterCounts;
+
+    /**
+     * Scratch space for the value of every cluster while deciding where to put a data point
+     */
+    private double[] decisionValues;
+
+    /**
+     * This ant's own random stream, so its tour does not depend on which thread runs it
+     */
+    private SplittableRandom random;
+
+    /**
+     * The order this ant clusters the data points in, shuffled in place before every tour
+     */
+    private int[] order;
 
     /**
      * This ants most recently calculated objective value
@@ -32,55 +47,89 @@ public class Ant implements Comparable{
     private double currentObjectiveValue;
 
     /**
-     * Constructor
-     * @param weights dimension: numDataPoints x numClusters
+     * Constructor for an ant that only holds a result, no data point is clustered yet
+     * @param numDataPoints the number of data points
+     * @param clusterCenters dimensions: numClusters x numAttributes
+     */
+    public Ant(int numDataPoints, double[][] clusterCenters){
+        this(numDataPoints, clusterCenters, null);
+    }
+
+    /**
+     * Constructor, no data point is clustered yet
+     * @param numDataPoints the number of data points
      * @param clusterCenters dimensions: numClusters x numAttributes
-     * @param memory dimension: numDataPoints
+     * @param random this ant's own random stream
      */
-    public Ant(int[][] weights, double[][] clusterCenters, int[] memory){
-        this.weights = weights;
+    public Ant(int numDataPoints, double[][] clusterCenters, SplittableRandom random){
+        this.random = random;
+        this.order = new int[numDataPoints];
+        for(int pointIter = 0; pointIter < numDataPoints; pointIter++){
+            this.order[pointIter] = pointIter;
+        }
+        this.labels = new int[numDataPoints];
         this.clusterCenters = clusterCenters;
-        this.memory = memory;
+        this.clusterSums = new double[clusterCenters.length][clusterCenters.length == 0 ? 0 : clusterCenters[0].length];
+        this.clusterCounts = new int[clusterCenters.length];
+        this.decisionValues = new double[clusterCenters.length];
+        this.resetLabels();
     }
 
     /**
-     * Places a data point into a cluster and records it in the ant's memory
+     * Places a data point into a cluster and updates the centers of the clusters it left and joined
+     * from the running sums
+     * @param data the data set
      * @param point the index of the data point to cluster
      * @param cluster the index of the cluster
-     * @throws Exception if the data point or cluster index is invalid
      */
-    public void putPointInCluster(int point, int cluster){
+    public void putPointInCluster(Dataset data, int point, int cluster){
         // index validation
-        if(point < 0 || point >= this.weights.length) System.out.println("point DNE in weights");
-        if(cluster < 0 || cluster >= this.weights[point].length) System.out.println("cluster DNE in weights");
+        if(point < 0 || point >= this.labels.length) System.out.println("point DNE in labels");
+        if(cluster < 0 || cluster >= this.clusterCenters.length) System.out.println("cluster DNE in cluster centers");
 
-        // update weights
-        for(int clusterIter = 0; clusterIter < this.weights[point].length; clusterIter++){
-            if(clusterIter == cluster) this.weights[point][clusterIter] = 1;
-            else this.weights[point][clusterIter] = 0;
+        // take the point out of the cluster it was in, if any
+        if(this.labels[point] != -1){
+            this.addToCluster(data, point, this.labels[point], -1);
         }
+        this.addToCluster(data, point, cluster, 1);
+        this.labels[point] = cluster;
+    }
 
-        // update memory
-        this.memory[point] = 1;
+    /**
+     * adds a data point to, or with sign -1 removes it from, the running sums of a cluster and updates its center
+     * an emptied cluster keeps its last center, as a full recompute would
+     */
+    private void addToCluster(Dataset data, int point, int cluster, int sign){
+        double[] sums = this.clusterSums[cluster];
+        this.clusterCounts[cluster] += sign;
+        for(int attrIter = 0; attrIter < sums.length; attrIter++){
+            sums[attrIter] += sign * data.get(point, attrIter);
+        }
+        if(this.clusterCounts[cluster] > 0){
+            for(int attrIter = 0; attrIter < sums.length; attrIter++){
+                this.clusterCenters[cluster][attrIter] = sums[attrIter] / this.clusterCounts[cluster];
+            }
+        }
     }
 
     /**
-     * Calculates the cluster centers for this ant
+     * Calculates the cluster centers for this ant from scratch, O(numDataPoints * numClusters * numAttributes)
+     * putPointInCluster keeps the centers up to date, so this is only needed to verify them
      * @param data the data points that were clustered
      */
-    public void calculateClusterCenters(Double[][] data){
+    public void calculateClusterCenters(Dataset data){
         for(int clusterIter = 0; clusterIter < this.clusterCenters.length; clusterIter++){
             int numInCluster = 0;
-            for(int dataIter = 0; dataIter < data.length; dataIter++){
+            for(int dataIter = 0; dataIter < data.getNumRows(); dataIter++){
 
                 // if the data point is in this cluster, sum to center
-                if(this.weights[dataIter][clusterIter] == 1){
+                if(this.labels[dataIter] == clusterIter){
                     numInCluster++;
-                    for(int attrIter = 0; attrIter < data[dataIter].length; attrIter++){
+                    for(int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++){
                         if(numInCluster == 1){
                             this.clusterCenters[clusterIter][attrIter] = 0.0;
                         }
-                        this.clusterCenters[clusterIter][attrIter] += data[dataIter][attrIter];
+                        this.clusterCenters[clusterIter][attrIter] += data.get(dataIter, attrIter);
                     }
                 }
             }
@@ -93,53 +142,54 @@ public class Ant implements Comparable{
     }
 
     /**
-     * Return true if the memory is full (this ant has clustered every data point)
-     * @return true if the memory is full (this ant has clustered every data point)
+     * Marks every data point as not clustered yet
      */
-    public boolean isMemoryFull(){
-        for(int memIter = 0; memIter < this.memory.length; memIter++){
-            if(this.memory[memIter] == 0) return false;
-        }
-        return true;
+    public void resetLabels(){
+        Arrays.fill(this.labels, -1);
     }
 
     /**
-     * Resets all weights to 0
-     */
-    public void resetWeights(){
-        for(int dataIter = 0; dataIter < this.weights.length; dataIter++){
-            for(int clusterIter = 0; clusterIter < this.weights[dataIter].length; clusterIter++){
-                this.weights[dataIter][clusterIter] = 0;
-            }
-        }
-    }
-
-    /**
-     * Resets all cluster centers to the zero vector
+     * Resets all cluster centers and running sums to the zero vector
      */
     public void resetClusterCenters(){
         for(int clusterIter = 0; clusterIter < this.clusterCenters.length; clusterIter++){
             for(int attrIter = 0; attrIter < this.clusterCenters[clusterIter].length; attrIter++){
                 this.clusterCenters[clusterIter][attrIter] = 0.0;
+                this.clusterSums[clusterIter][attrIter] = 0.0;
             }
+            this.clusterCounts[clusterIter] = 0;
         }
     }
 
     /**
-     * Resets all memory values to 0
+     * Gets this ant's own random stream
+     * @return the random stream
      */
-    public void resetMemory(){
-        for(int memIter = 0; memIter < this.memory.length; memIter++){
-            this.memory[memIter] = 0;
+    public SplittableRandom getRandom(){
+        return this.random;
+    }
+
+    /**
+     * Shuffles the order this ant clusters the data points in, with a Fisher-Yates shuffle in place
+     * the order is shuffled from where the last tour left it, which is as random as starting from the identity
+     * @return the data point indices in a random order, not a copy
+     */
+    public int[] shuffleOrder(){
+        for(int pointIter = this.order.length - 1; pointIter > 0; pointIter--){
+            int swapIter = this.random.nextInt(pointIter + 1);
+            int point = this.order[pointIter];
+            this.order[pointIter] = this.order[swapIter];
+            this.order[swapIter] = point;
         }
+        return this.order;
     }
 
     /**
-     * Gets the memory
-     * @return the memory
+     * Gets the scratch space for deciding where to put a data point, one entry per cluster
+     * @return the scratch space
      */
-    public int[] getMemory(){
-        return this.memory;
+    public double[] getDecisionValues(){
+        return this.decisionValues;
     }
 
     /**
@@ -150,14 +200,6 @@ public class Ant implements Comparable{
         return this.clusterCenters;
     }
 
-    /**
-     * Sets the cluster centers, used by bestAnt in ACO
-     * @param centers the cluster centers
-     */
-    public void setClusterCenters(double[][] centers){
-        this.clusterCenters = centers;
-    }
-
     /**
      * Sets the current objective value
      * @param value the current objective value
@@ -175,39 +217,33 @@ public class Ant implements Comparable{
     }
 
     /**
-     * Gets the weights
-     * @return the weights
+     * Gets the labels
+     * @return [i] holds the cluster of data point i, -1 if it is not clustered yet
      */
-    public int[][] getWeights(){
-        return this.weights;
+    public int[] getLabels(){
+        return this.labels;
     }
 
     /**
-     * Sets the weights, used for the bestAnt in ACO
-     * @param weights the weights
+     * Copies the labels, cluster centers, and objective value of another ant, used for the bestAnt in ACO
+     * the copy is deep, so the other ant's next tour does not change it
+     * @param other the ant to copy, with the same number of data points and clusters
      */
-    public void setWeights(int[][] weights){
-        this.weights = weights;
+    public void copyFrom(Ant other){
+        System.arraycopy(other.labels, 0, this.labels, 0, this.labels.length);
+        for(int clusterIter = 0; clusterIter < this.clusterCenters.length; clusterIter++){
+            System.arraycopy(other.clusterCenters[clusterIter], 0, this.clusterCenters[clusterIter], 0, this.clusterCenters[clusterIter].length);
+        }
+        this.currentObjectiveValue = other.currentObjectiveValue;
     }
 
-    @Override
     /**
-     * Sorts Ants according to their objective value, where a higher objective value is a
-     * Returns -1 if objective value of this Ant is less than the other's
-     * 0 if the values are the same
-     * 1 if objective value of this Ant is greater than the other's
+     * Orders Ants by their objective value, lowest first
+     * @param other the other ant
+     * @return negative if this ant's objective value is lower than the other's, 0 if equal, positive if higher
      */
-    public int compareTo(Object o) {
-        if(!o.getClass().getTypeName().equals("Ant")) throw new TypeMismatchException("Cannot compare this with an Ant");
-        Ant other = (Ant)o;
-        if(this.currentObjectiveValue - other.getCurrentObjectiveValue() > 0){
-            return 1;
-        }
-        else if(this.currentObjectiveValue - other.getCurrentObjectiveValue() < 0){
-            return -1;
-        }
-        else{
-            return 0;
-        }
+    @Override
+    public int compareTo(Ant other) {
+        return Double.compare(this.currentObjectiveValue, other.currentObjectiveValue);
     }
 }
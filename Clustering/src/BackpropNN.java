@@ -49,12 +49,12 @@ public class BackpropNN extends Clustering{
     /**
      * A neural network using backpropagation is used to assign points to clusters
      */
-    public int[] cluster(Double[][] data, int numClusters){
+    public int[] cluster(Dataset data, int numClusters){
         // the number of outputs
         this.numOutputs = numClusters;
 
         // the number of inputs
-        this.numInputs = data[0].length;
+        this.numInputs = data.getNumAttrs();
 
         // the average of the inputs to each node, used to update weights
         ArrayList<Double> avgInput = new ArrayList<>();
@@ -85,15 +85,15 @@ public class BackpropNN extends Clustering{
         int iterSinceBestUpdate = 0;
         do{
             // Cluster each data point
-            int[] clustering = new int[data.length];
+            int[] clustering = new int[data.getNumRows()];
             this.hiddenDerivatives = new Double[this.numHiddenNodesPerLayer[0]];
             this.outputDerivatives = new Double[this.numOutputs];
             avgInput.clear();
             for(int iter = 0; iter < this.numHiddenNodesPerLayer[0] + this.numOutputs; iter++){
                 avgInput.add(0.0);
             }
-            for(int pointIter = 0; pointIter < data.length; pointIter++){
-                clustering[pointIter] = this.sendThroughNetwork(data[pointIter], weights, avgInput);
+            for(int pointIter = 0; pointIter < data.getNumRows(); pointIter++){
+                clustering[pointIter] = this.sendThroughNetwork(data, pointIter, weights, avgInput);
             }
 
             // Determine error and backpropogate
@@ -176,10 +176,11 @@ public class BackpropNN extends Clustering{
 
     /**
      * Sends a given data point through the network to be clustered and returns the output
-     * @param dataPoint the data point to cluster
+     * @param data the data set
+     * @param dataPoint the index of the data point to cluster
      * @return an int representing the cluster chosen for the given data point
      */
-    private int sendThroughNetwork(Double[] dataPoint, ArrayList<Double> weights, ArrayList<Double> avgInputs){
+    private int sendThroughNetwork(Dataset data, int dataPoint, ArrayList<Double> weights, ArrayList<Double> avgInputs){
         // used as the values passed between the layers
         ArrayList<Double> currentLayer = new ArrayList<>();
 
@@ -189,10 +190,10 @@ public class BackpropNN extends Clustering{
         for(int layerIter = 0; layerIter < this.numHiddenLayers + 1; layerIter++){
             // from input layer to first hidden layer
             if(layerIter == 0){
-                int numWeights = dataPoint.length * this.numHiddenNodesPerLayer[0];
+                int numWeights = data.getNumAttrs() * this.numHiddenNodesPerLayer[0];
                 int inputIter = 0;
                 for(int weightIter = 0; weightIter < numWeights; weightIter++){
-                    currentLayer.add(dataPoint[inputIter] * weights.get(weightIter));
+                    currentLayer.add(data.get(dataPoint, inputIter) * weights.get(weightIter));
                     if((weightIter + 1) % this.numHiddenNodesPerLayer[0] == 0){
                         inputIter++;
                     }
@@ -335,7 +336,7 @@ public class BackpropNN extends Clustering{
      * @param clustering the clustering of the data
      * @return the fitness of the clustering
      */
-    private double calculateError(Double[][] data, int[] clustering){
+    private double calculateError(Dataset data, int[] clustering){
         return Driver.evaluateClusters(data, clustering, this.numOutputs);
     }
 
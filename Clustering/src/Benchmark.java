@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Entry point for comparing implementations on the same data, separate from Driver so that
+ * every run of a comparison uses the same data set and seeds
+ * Usage: java Benchmark [comparison] [data-set] [num-clusters] [runs]
+ */
+public class Benchmark {
+
+    /**
+     * Runs a comparison
+     * @param args [comparison] [data-set] [num-clusters] [runs]
+     */
+    public static void main(String[] args){
+        if(args.length < 3){
+            Benchmark.displayHelpText();
+            return;
+        }
+        int numClusters = Integer.parseInt(args[2]);
+        int runs = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        Dataset dataset = Benchmark.loadDataset(args[1]);
+        switch(args[0]){
+            case "seeding":
+                Benchmark.compareSeeding(dataset, numClusters, runs);
+                break;
+            case "centers":
+                Benchmark.compareCenters(dataset, numClusters, runs);
+                break;
+            default:
+                Benchmark.displayHelpText();
+        }
+    }
+
+    /**
+     * Runs KMeans from every seeding method with the same seeds and prints the average seeding time,
+     * iterations to converge, and final sum of squared distances
+     * @param data the data set
+     * @param numClusters the number of clusters
+     * @param runs the number of seeds tried per method
+     */
+    private static void compareSeeding(Dataset data, int numClusters, int runs){
+        String[] methods = {Seeding.RANDOM, Seeding.KMEANS_PLUS_PLUS, Seeding.KMEANS_PARALLEL};
+        System.out.printf("%-8s %12s %12s %12s %14s%n", "seeding", "seed (ms)", "total (ms)", "iterations", "SSE");
+        for (String method: methods) {
+            double seedMillis = 0;
+            double totalMillis = 0;
+            double iterations = 0;
+            double sse = 0;
+            for (int runIter = 0; runIter < runs; runIter++) {
+                KMeans kMeans = new KMeans();
+                kMeans.setSeeding(new Seeding(method));
+
+                //seed once on its own to time it, then again from the same seed inside the run
+                kMeans.setSeed(runIter);
+                long startNanos = System.nanoTime();
+                kMeans.initCentroids(data, numClusters);
+                seedMillis += (System.nanoTime() - startNanos) / 1e6;
+
+                kMeans.setSeed(runIter);
+                startNanos = System.nanoTime();
+                int[] labels = kMeans.cluster(data, numClusters);
+                totalMillis += (System.nanoTime() - startNanos) / 1e6;
+                iterations += kMeans.getIterations();
+                sse += Benchmark.sumSquaredDistances(data, labels, numClusters);
+            }
+            System.out.printf("%-8s %12.1f %12.1f %12.1f %14.6e%n", method, seedMillis / runs, totalMillis / runs, iterations / runs, sse / runs);
+        }
+    }
+
+    /**
+     * Times the DB-Scan center and nearest-center stage against the implementation it replaced
+     * Every other datapoint is put in one of numClusters clusters found by KMeans, as DB-Scan would
+     * cluster its core points, and both implementations assign the rest
+     * @param data the data set
+     * @param numClusters the number of clusters
+     * @param runs the number of timed runs per implementation
+     */
+    private static void compareCenters(Dataset data, int numClusters, int runs){
+        KMeans kMeans = new KMeans();
+        kMeans.setSeed(0);
+        int[] kMeansLabels = kMeans.cluster(data, numClusters);
+        int[] clusters = new int[data.getNumRows()];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            clusters[dataIter] = dataIter % 2 == 0 ? kMeansLabels[dataIter] : -1;
+        }
+        //KMeans can leave clusters empty, so number the ones in use
+        int[] clusterNums = new int[numClusters];
+        Arrays.fill(clusterNums, -1);
+        int clusterNum = 0;
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter += 2) {
+            if (clusterNums[clusters[dataIter]] == -1) clusterNums[clusters[dataIter]] = clusterNum++;
+            clusters[dataIter] = clusterNums[clusters[dataIter]];
+        }
+
+        DBScan dbScan = new DBScan();
+        double legacyMillis = 0;
+        double newMillis = 0;
+        int[] legacyLabels = null;
+        int[] newLabels = null;
+        for (int runIter = 0; runIter < runs; runIter++) {
+            DB_point[] legacyPoints = Benchmark.makePoints(clusters);
+            long startNanos = System.nanoTime();
+            Benchmark.legacyAssignToCenters(data, legacyPoints, clusterNum);
+            legacyMillis += (System.nanoTime() - startNanos) / 1e6;
+            legacyLabels = Benchmark.getClusters(legacyPoints);
+
+            DB_point[] newPoints = Benchmark.makePoints(clusters);
+            startNanos = System.nanoTime();
+            dbScan.assignToCenters(data, newPoints, clusterNum);
+            newMillis += (System.nanoTime() - startNanos) / 1e6;
+            newLabels = Benchmark.getClusters(newPoints);
+        }
+        int agree = 0;
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            if (legacyLabels[dataIter] == newLabels[dataIter]) agree++;
+        }
+        System.out.printf("%d clusters, %d of %d points to assign%n", clusterNum, data.getNumRows() / 2, data.getNumRows());
+        System.out.printf("%-8s %12s%n", "stage", "time (ms)");
+        System.out.printf("%-8s %12.2f%n", "legacy", legacyMillis / runs);
+        System.out.printf("%-8s %12.2f%n", "current", newMillis / runs);
+        //the legacy centers were divided by the cluster size times the number of attributes, so labels may differ
+        System.out.printf("Labels agree: %d of %d%n", agree, data.getNumRows());
+    }
+
+    /**
+     * makes DB-Scan points with the given clusters, all labeled as core points
+     */
+    private static DB_point[] makePoints(int[] clusters){
+        DB_point[] points = new DB_point[clusters.length];
+        for (int dataIter = 0; dataIter < clusters.length; dataIter++) {
+            points[dataIter] = new DB_point(dataIter, 2);
+            points[dataIter].setCluster(clusters[dataIter]);
+        }
+        return points;
+    }
+
+    /**
+     * gets the cluster of every DB-Scan point
+     */
+    private static int[] getClusters(DB_point[] points){
+        int[] clusters = new int[points.length];
+        for (int dataIter = 0; dataIter < points.length; dataIter++) {
+            clusters[dataIter] = points[dataIter].getCluster();
+        }
+        return clusters;
+    }
+
+    /**
+     * The center and nearest-center stage of DBScan.getClusterLabels before it was rewritten, kept
+     * unchanged (including dividing the centers by the number of attributes too) as the baseline
+     */
+    private static void legacyAssignToCenters(Dataset data, DB_point[] dbPoints, int clusterNum){
+        //find centers of current clusters
+        ArrayList<double[]> centers = new ArrayList<>();
+        //for every cluster
+        for (int clusterIter = 0; clusterIter < clusterNum; clusterIter++) {
+            //make a center
+            double[] center = new double[data.getNumAttrs()];
+            int divisor = 0;
+            //for all points in current cluster
+            for (DB_point point: dbPoints) {
+                if(point.getCluster() == clusterIter){
+                    //add dimensions to center
+                    for (int dimIter = 0; dimIter < center.length; dimIter++) {
+                        center[dimIter] += data.get(point.getRow(), dimIter);
+                        divisor++;
+                    }
+
+                }
+            }
+            //take average of all values from all points in cluster
+            for (int dimIter = 0; dimIter < center.length; dimIter++) {
+                center[dimIter] /= divisor;
+            }
+            centers.add(center);
+        }
+
+        //add non core points to cluster with closest center
+        //for all points not in a cluster
+        for (DB_point point: dbPoints) {
+            if(point.getCluster() == -1){
+                double[] distances = new double[centers.size()];
+                //find distance from point to center of each cluster
+                for (int distIter = 0; distIter < centers.size(); distIter++) {
+                    distances[distIter] = data.distanceSquared(point.getRow(), centers.get(distIter));
+                }
+                //set cluster to closest center
+                double min = distances[0];
+                int minIndex = 0;
+                for (int distIter = 0; distIter < distances.length; distIter++) {
+                    if (min > distances[distIter]){
+                        min = distances[distIter];
+                        minIndex = distIter;
+                    }
+                }
+                point.setCluster(minIndex);
+            }
+        }
+    }
+
+    /**
+     * sums the squared distance from every datapoint to the mean of its cluster, the KMeans objective
+     */
+    private static double sumSquaredDistances(Dataset data, int[] labels, int numClusters){
+        double[][] means = new double[numClusters][data.getNumAttrs()];
+        int[] counts = new int[numClusters];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            for (int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++) {
+                means[labels[dataIter]][attrIter] += data.get(dataIter, attrIter);
+            }
+            counts[labels[dataIter]]++;
+        }
+        for (int clusterIter = 0; clusterIter < numClusters; clusterIter++) {
+            for (int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++) {
+                means[clusterIter][attrIter] /= Math.max(1, counts[clusterIter]);
+            }
+        }
+        double sum = 0;
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            sum += data.distanceSquared(dataIter, means[labels[dataIter]]);
+        }
+        return sum;
+    }
+
+    /**
+     * loads one of the five data sets by name, or a data set file by path
+     */
+    private static Dataset loadDataset(String name){
+        switch(name){
+            case "haberman":
+                return Data.getHaberman();
+            case "htru2":
+                return Data.getHtru2();
+            case "iris":
+                return Data.getIris();
+            case "road":
+                return Data.getRoad();
+            case "wine":
+                return Data.getWine();
+            default:
+                try{
+                    return Data.getDataset(Paths.get(name));
+                }
+                catch(IOException e){
+                    throw new IllegalArgumentException("Could not load " + name + ": " + e.getMessage(), e);
+                }
+        }
+    }
+
+    private static void displayHelpText(){
+        System.out.println("Usage:\tjava Benchmark [comparison] [data-set] [num-clusters] [runs]");
+        System.out.println("[comparison]:\tseeding, centers");
+        System.out.println("\tseeding    KMeans iterations to converge and final objective from random, kmpp, and kmll seeding");
+        System.out.println("\tcenters    time of the DB-Scan center and nearest-center stage against the implementation it replaced");
+        System.out.println("[data-set]:\thaberman, htru2, iris, road, wine, or the path of a CSV or .bin file");
+        System.out.println("[runs]:\t\tthe number of seeds or timed runs per method (default 5)");
+        System.out.println();
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes data sets in a compact binary format that can be memory-mapped
+ * Layout (little-endian):
+ *  int magic, int version, int numRows, int numAttrs, long checksum (CRC32 of the values),
+ *  long sourceSize, long sourceModified (size in bytes and last-modified millis of the CSV it was converted from),
+ *  then numRows * numAttrs doubles in row-major order
+ * Running main converts CSV files into this format, one .bin file next to each .data file
+ * A binary file whose recorded source no longer matches its CSV file is stale and is rejected by map(path, source)
+ * Mapping only checks the header, so opening a file stays lazy; the checksum is written at conversion and
+ * only checked by verify, e.g. running main with -verify
+ */
+public class BinaryData {
+
+    /**
+     * Identifies a binary data set file ("CLDS")
+     */
+    private static final int MAGIC = 0x434C4453;
+
+    /**
+     * The version of the format
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * The size of the header in bytes, keeps the values 8-byte aligned
+     */
+    public static final int HEADER_SIZE = 40;
+
+    /**
+     * Converts CSV data sets into binary files, each written next to its CSV file, or verifies binary files
+     * @param args [csv-file | directory]..., a directory converts every .data file in it, defaults to res;
+     * or -verify bin-file... to check the checksum of every value of binary files
+     */
+    public static void main(String[] args){
+        if(args.length > 0 && args[0].equals("-verify")){
+            for(int argIter = 1; argIter < args.length; argIter++){
+                try{
+                    BinaryData.verify(Paths.get(args[argIter]));
+                    System.out.println(args[argIter] + " passed its checksum");
+                }
+                catch(IOException e){
+                    System.out.println("Could not verify " + args[argIter] + ": " + e.getMessage());
+                }
+            }
+            return;
+        }
+        String[] targets = args.length > 0 ? args : new String[]{"res"};
+        for(String target : targets){
+            Path targetPath = Paths.get(target);
+            try{
+                if(Files.isDirectory(targetPath)){
+                    try(DirectoryStream<Path> files = Files.newDirectoryStream(targetPath, "*.data")){
+                        for(Path file : files){
+                            BinaryData.convert(file);
+                        }
+                    }
+                }
+                else{
+                    BinaryData.convert(targetPath);
+                }
+            }
+            catch(IOException e){
+                System.out.println("Could not convert " + target + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Converts a single CSV file into a binary file next to it
+     * @param csvPath the CSV file
+     * @throws IOException if the CSV file cannot be parsed or the binary file cannot be written
+     */
+    private static void convert(Path csvPath) throws IOException{
+        //stamp before parsing so a CSV edited during the conversion reads as stale
+        long sourceSize = Files.size(csvPath);
+        long sourceModified = Files.getLastModifiedTime(csvPath).toMillis();
+        Dataset data = Data.getDataset(csvPath);
+        Path binaryPath = csvPath.resolveSibling(BinaryData.getBinaryName(csvPath.getFileName().toString()));
+        BinaryData.write(data, binaryPath, sourceSize, sourceModified);
+        System.out.println("Wrote " + binaryPath + " (" + data.getNumRows() + "x" + data.getNumAttrs() + ")");
+    }
+
+    /**
+     * Gets the name of the binary file for a CSV file, e.g. iris.data becomes iris.bin
+     * @param csvName the name of the CSV file
+     * @return the name of the binary file
+     */
+    public static String getBinaryName(String csvName){
+        int extension = csvName.lastIndexOf('.');
+        return (extension >= 0 ? csvName.substring(0, extension) : csvName) + ".bin";
+    }
+
+    /**
+     * Writes a data set to a binary file, replacing any existing file
+     * @param data the data set
+     * @param path the file to write
+     * @param sourceSize the size in bytes of the CSV file the data set was parsed from
+     * @param sourceModified the last-modified time in millis of the CSV file the data set was parsed from
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(Dataset data, Path path, long sourceSize, long sourceModified) throws IOException{
+        int numValues = data.getNumRows() * data.getNumAttrs();
+        ByteBuffer payload = ByteBuffer.allocate(numValues * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for(int rowIter = 0; rowIter < data.getNumRows(); rowIter++){
+            for(int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++){
+                payload.putDouble(data.get(rowIter, attrIter));
+            }
+        }
+        payload.flip();
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(data.getNumRows()).putInt(data.getNumAttrs());
+        header.putLong(BinaryData.checksum(payload));
+        header.putLong(sourceSize).putLong(sourceModified);
+        header.flip();
+
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+            while(header.hasRemaining()) channel.write(header);
+            while(payload.hasRemaining()) channel.write(payload);
+        }
+    }
+
+    /**
+     * Memory-maps a binary file as a read-only data set, the values are not copied onto the heap
+     * or read until they are used
+     * @param path the file to map
+     * @return the mapped data set
+     * @throws IOException if the file cannot be read or is not a binary data set
+     */
+    public static Dataset map(Path path) throws IOException{
+        return BinaryData.map(path, null);
+    }
+
+    /**
+     * Memory-maps a binary file as a read-only data set, rejecting it if it is stale
+     * @param path the file to map
+     * @param source the CSV file it was converted from, null to skip the staleness check
+     * @return the mapped data set
+     * @throws IOException if the file cannot be read, is not a binary data set, or does not match the size
+     * and last-modified time of source
+     */
+    public static Dataset map(Path path, Path source) throws IOException{
+        MappedByteBuffer mapped;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(channel.size() < HEADER_SIZE) throw new IOException(path + " is too small to be a binary data set");
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        // validate the header only, checking every value would read the whole file
+        int[] dimensions = BinaryData.readHeader(mapped, mapped.capacity(), path);
+        if(source != null){
+            long sourceSize = Files.size(source);
+            long sourceModified = Files.getLastModifiedTime(source).toMillis();
+            if(mapped.getLong(24) != sourceSize || mapped.getLong(32) != sourceModified){
+                throw new IOException(path + " is stale, " + source + " has changed since it was converted");
+            }
+        }
+        mapped.position(HEADER_SIZE);
+        ByteBuffer payload = mapped.slice().order(ByteOrder.LITTLE_ENDIAN);
+        DoubleBuffer values = payload.asDoubleBuffer();
+        return new Dataset(values, dimensions[0], dimensions[1]);
+    }
+
+    /**
+     * Checks the checksum of every value of a binary file, reading the whole file
+     * @param path the file to check
+     * @throws IOException if the file cannot be read, is not a binary data set, or fails its checksum
+     */
+    public static void verify(Path path) throws IOException{
+        MappedByteBuffer mapped;
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(channel.size() < HEADER_SIZE) throw new IOException(path + " is too small to be a binary data set");
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        BinaryData.readHeader(mapped, mapped.capacity(), path);
+        mapped.position(HEADER_SIZE);
+        if(BinaryData.checksum(mapped.slice()) != mapped.getLong(16)) throw new IOException(path + " failed its checksum");
+    }
+
+    /**
+     * Reads and validates the header of a binary file
+     * @param header a little-endian buffer holding at least the header, starting at index 0
+     * @param fileSize the size of the whole file in bytes
+     * @param path the file, used in error messages
+     * @return {numRows, numAttrs}
+     * @throws IOException if the header is not a valid binary data set header for a file of this size
+     */
+    public static int[] readHeader(ByteBuffer header, long fileSize, Path path) throws IOException{
+        if(fileSize < HEADER_SIZE) throw new IOException(path + " is too small to be a binary data set");
+        if(header.getInt(0) != MAGIC) throw new IOException(path + " is not a binary data set");
+        if(header.getInt(4) != VERSION) throw new IOException(path + " has unsupported version " + header.getInt(4));
+        int numRows = header.getInt(8);
+        int numAttrs = header.getInt(12);
+        long payloadSize = (long) numRows * numAttrs * Double.BYTES;
+        if(numRows < 0 || numAttrs < 0 || fileSize - HEADER_SIZE != payloadSize){
+            throw new IOException(path + " has a header that does not match its size");
+        }
+        return new int[]{numRows, numAttrs};
+    }
+
+    /**
+     * Computes the CRC32 of the remaining bytes of a buffer without moving its position
+     * @param buffer the buffer
+     * @return the checksum
+     */
+    private static long checksum(ByteBuffer buffer){
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate());
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,60 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the same work for a range of fixed-size blocks of rows on a fork/join pool, splitting in
+ * halves down to single blocks; as the blocks never depend on the number of threads, results
+ * that are kept per block are deterministic
+ */
+public class BlockAction extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The work done for one block of rows
+     */
+    public interface Body {
+
+        /**
+         * Runs the work for one block
+         * @param block the index of the block
+         */
+        void run(int block);
+    }
+
+    private final int start;
+    private final int end;
+    private final Body body;
+
+    /**
+     * Constructor
+     * @param start the first block
+     * @param end one past the last block
+     * @param body the work done for each block
+     */
+    public BlockAction(int start, int end, Body body){
+        this.start = start;
+        this.end = end;
+        this.body = body;
+    }
+
+    /**
+     * Gets the number of blocks needed to cover some rows
+     * @param numRows the number of rows
+     * @param blockSize the number of rows per block
+     * @return the number of blocks
+     */
+    public static int getNumBlocks(int numRows, int blockSize){
+        return (numRows + blockSize - 1) / blockSize;
+    }
+
+    @Override
+    protected void compute(){
+        if (this.end - this.start > 1) {
+            int middle = (this.start + this.end) >>> 1;
+            invokeAll(new BlockAction(this.start, middle, this.body), new BlockAction(middle, this.end, this.body));
+        }
+        else if (this.end > this.start) {
+            this.body.run(this.start);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A data set on disk that is read in fixed-size blocks of rows, so that it never has to fit in memory
+ * Each pass (iterator) re-reads the file from the start; .bin files are read directly,
+ * anything else is parsed as CSV
+ * A chunk shares its storage with the pass that produced it, so it is only valid until hasNext is called again
+ */
+public class ChunkedDataset implements Iterable<Dataset> {
+
+    /**
+     * The file holding the data set
+     */
+    private final Path path;
+
+    /**
+     * The maximum number of rows per chunk
+     */
+    private final int chunkSize;
+
+    /**
+     * Constructor
+     * @param path the CSV or .bin file holding the data set
+     * @param chunkSize the maximum number of rows per chunk
+     */
+    public ChunkedDataset(Path path, int chunkSize){
+        if(chunkSize < 1) throw new IllegalArgumentException("chunkSize must be positive");
+        this.path = path;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Starts a new pass over the data set
+     * @return an iterator over the chunks of the data set, the file is closed once it is exhausted
+     * @throws UncheckedIOException if the file cannot be opened or read
+     */
+    @Override
+    public Iterator<Dataset> iterator(){
+        try{
+            if(this.path.getFileName().toString().endsWith(".bin")){
+                return new BinaryChunks();
+            }
+            return new CsvChunks();
+        }
+        catch(IOException e){
+            throw new UncheckedIOException("Could not read " + this.path, e);
+        }
+    }
+
+    /**
+     * Reads only the first chunk of the data set, e.g. to seed an algorithm
+     * Unlike chunks of a pass, the returned chunk stays valid
+     * @return the first chunk, with zero rows if the data set is empty
+     * @throws UncheckedIOException if the file cannot be opened or read
+     */
+    public Dataset getFirstChunk(){
+        Chunks chunks = (Chunks) this.iterator();
+        Dataset first = chunks.hasNext() ? chunks.next() : new Dataset(new double[0], 0, 0);
+        try{
+            chunks.close();
+        }
+        catch(IOException e){
+            throw new UncheckedIOException("Could not close " + this.path, e);
+        }
+        return first;
+    }
+
+    /**
+     * Gets the maximum number of rows per chunk
+     * @return the maximum number of rows per chunk
+     */
+    public int getChunkSize(){
+        return this.chunkSize;
+    }
+
+    /**
+     * Gets the file holding the data set
+     * @return the file holding the data set
+     */
+    public Path getPath(){
+        return this.path;
+    }
+
+    /**
+     * Base for the chunk iterators, a chunk is only read once the previous one is no longer needed
+     */
+    private abstract class Chunks implements Iterator<Dataset> {
+
+        /**
+         * The chunk read by hasNext but not yet returned by next
+         */
+        private Dataset next;
+
+        /**
+         * True once the end of the file has been reached
+         */
+        private boolean done;
+
+        /**
+         * Reads the next chunk from the file
+         * @return the chunk, with zero rows at the end of the file
+         * @throws IOException if the file cannot be read
+         */
+        protected abstract Dataset readChunk() throws IOException;
+
+        /**
+         * Closes the file
+         * @throws IOException if the file cannot be closed
+         */
+        protected abstract void close() throws IOException;
+
+        @Override
+        public boolean hasNext(){
+            if(this.next == null && !this.done){
+                try{
+                    this.next = this.readChunk();
+                    if(this.next.getNumRows() == 0){
+                        this.next = null;
+                        this.done = true;
+                        this.close();
+                    }
+                }
+                catch(IOException e){
+                    throw new UncheckedIOException("Could not read " + ChunkedDataset.this.path, e);
+                }
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Dataset next(){
+            if(!this.hasNext()) throw new NoSuchElementException();
+            Dataset chunk = this.next;
+            this.next = null;
+            return chunk;
+        }
+    }
+
+    /**
+     * Chunks of a CSV file, parsed with a CsvParser
+     */
+    private class CsvChunks extends Chunks {
+
+        /**
+         * The open file
+         */
+        private final InputStream in;
+
+        /**
+         * The parser reading the file
+         */
+        private final CsvParser parser;
+
+        /**
+         * Opens the file
+         * @throws IOException if the file cannot be opened
+         */
+        CsvChunks() throws IOException{
+            this.in = Files.newInputStream(ChunkedDataset.this.path);
+            this.parser = new CsvParser(this.in);
+        }
+
+        @Override
+        protected Dataset readChunk() throws IOException{
+            return this.parser.nextChunk(ChunkedDataset.this.chunkSize);
+        }
+
+        @Override
+        protected void close() throws IOException{
+            this.in.close();
+        }
+    }
+
+    /**
+     * Chunks of a binary file, read into a reused direct buffer
+     */
+    private class BinaryChunks extends Chunks {
+
+        /**
+         * The open file
+         */
+        private final FileChannel channel;
+
+        /**
+         * The number of rows in the file
+         */
+        private final int numRows;
+
+        /**
+         * The number of attributes per row
+         */
+        private final int numAttrs;
+
+        /**
+         * The number of rows read so far
+         */
+        private int rowsRead;
+
+        /**
+         * Holds the bytes of the current chunk
+         */
+        private final ByteBuffer chunkBytes;
+
+        /**
+         * Opens the file and validates its header
+         * @throws IOException if the file cannot be opened or is not a binary data set
+         */
+        BinaryChunks() throws IOException{
+            this.channel = FileChannel.open(ChunkedDataset.this.path, StandardOpenOption.READ);
+            try{
+                ByteBuffer header = ByteBuffer.allocate(BinaryData.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                this.readFully(header);
+                int[] dimensions = BinaryData.readHeader(header, this.channel.size(), ChunkedDataset.this.path);
+                this.numRows = dimensions[0];
+                this.numAttrs = dimensions[1];
+            }
+            catch(IOException e){
+                this.channel.close();
+                throw e;
+            }
+            long chunkBytes = (long) Math.min(ChunkedDataset.this.chunkSize, Math.max(this.numRows, 1)) * this.numAttrs * Double.BYTES;
+            this.chunkBytes = ByteBuffer.allocateDirect((int) chunkBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        protected Dataset readChunk() throws IOException{
+            int rows = Math.min(ChunkedDataset.this.chunkSize, this.numRows - this.rowsRead);
+            this.chunkBytes.clear();
+            this.chunkBytes.limit(rows * this.numAttrs * Double.BYTES);
+            this.readFully(this.chunkBytes);
+            this.chunkBytes.flip();
+            this.rowsRead += rows;
+            return new Dataset(this.chunkBytes.asDoubleBuffer(), rows, this.numAttrs);
+        }
+
+        @Override
+        protected void close() throws IOException{
+            this.channel.close();
+        }
+
+        /**
+         * Fills the remaining space of a buffer from the file
+         * @param buffer the buffer
+         * @throws IOException if the file ends first
+         */
+        private void readFully(ByteBuffer buffer) throws IOException{
+            while(buffer.hasRemaining()){
+                if(this.channel.read(buffer) == -1) throw new IOException(ChunkedDataset.this.path + " ended early");
+            }
+        }
+    }
+}
@@ -3,11 +3,56 @@
  */
 public abstract class Clustering {
 
+    /**
+     * The number of iterations the last run took, 0 for algorithms that do not iterate
+     */
+    protected int iterations;
+
+    /**
+     * Why the last run stopped iterating, null for algorithms that do not iterate
+     */
+    protected String stopReason;
+
     /**
      * Clusters a data set into a set of clusters
      * @param data the data set to cluster
      * @param numClusters the number of clusters
+     * @return an array of ints, each index corresponds to a point in the data set; the value is the cluster
+     */
+    public abstract int[] cluster(Dataset data, int numClusters);
+
+    /**
+     * Clusters a boxed data set into a set of clusters, the data is copied into a Dataset first
+     * @param data the data set to cluster
+     * @param numClusters the number of clusters
      * @return an array of ints, each index corresponds to a point in the data array; the value is the cluster
      */
-    public abstract int[] cluster(Double[][] data, int numClusters);
+    public int[] cluster(Double[][] data, int numClusters){
+        return this.cluster(Dataset.fromArray(data), numClusters);
+    }
+
+    /**
+     * Records the iteration count and stop reason of a finished run
+     * @param convergence the convergence policy that ended the run
+     */
+    protected void recordConvergence(Convergence convergence){
+        this.iterations = convergence.getIterations();
+        this.stopReason = convergence.getStopReason();
+    }
+
+    /**
+     * Gets the number of iterations the last run took
+     * @return the number of iterations, 0 for algorithms that do not iterate
+     */
+    public int getIterations(){
+        return this.iterations;
+    }
+
+    /**
+     * Gets why the last run stopped iterating
+     * @return the reason, null for algorithms that do not iterate
+     */
+    public String getStopReason(){
+        return this.stopReason;
+    }
 }
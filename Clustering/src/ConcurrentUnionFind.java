@@ -0,0 +1,59 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A lock-free union-find (disjoint set forest) that many threads can union concurrently
+ * A root is always linked under a smaller root with a compare-and-set, so the root of every set is its
+ * smallest element no matter how the unions interleave; finds halve their paths with compare-and-sets too
+ */
+public class ConcurrentUnionFind {
+
+    /**
+     * [i] holds the parent of i, roots are their own parent
+     */
+    private final AtomicIntegerArray parents;
+
+    /**
+     * Constructor, every element starts in a set of its own
+     * @param size the number of elements
+     */
+    public ConcurrentUnionFind(int size){
+        this.parents = new AtomicIntegerArray(size);
+        for (int elemIter = 0; elemIter < size; elemIter++) {
+            this.parents.set(elemIter, elemIter);
+        }
+    }
+
+    /**
+     * Finds the root of the set holding an element
+     * @param elem the element
+     * @return the root, the smallest element of the set once all unions are done
+     */
+    public int find(int elem){
+        int parent = this.parents.get(elem);
+        while (parent != elem) {
+            //point elem at its grandparent, losing the race only means another thread already shortened it
+            int grandparent = this.parents.get(parent);
+            this.parents.compareAndSet(elem, parent, grandparent);
+            elem = grandparent;
+            parent = this.parents.get(elem);
+        }
+        return elem;
+    }
+
+    /**
+     * Merges the sets holding two elements
+     * @param first the first element
+     * @param second the second element
+     */
+    public void union(int first, int second){
+        while (true) {
+            int firstRoot = this.find(first);
+            int secondRoot = this.find(second);
+            if (firstRoot == secondRoot) return;
+            //link the larger root under the smaller, retrying if it stopped being a root meanwhile
+            int larger = Math.max(firstRoot, secondRoot);
+            int smaller = Math.min(firstRoot, secondRoot);
+            if (this.parents.compareAndSet(larger, larger, smaller)) return;
+        }
+    }
+}
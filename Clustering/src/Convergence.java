@@ -0,0 +1,189 @@
+/**
+ * Decides when an iterative clustering algorithm should stop
+ * A run stops at the maximum number of iterations, or earlier when any enabled criterion is met:
+ * the largest centroid shift is within a tolerance, no label changed, or the objective has not
+ * improved for a number of iterations
+ * Usage: call start(), then each iteration record what the algorithm knows and call endIteration()
+ * until isDone() is true
+ */
+public class Convergence {
+
+    /**
+     * The maximum number of iterations
+     */
+    private final int maxIterations;
+
+    /**
+     * Stop when no centroid moves further than this, negative disables
+     */
+    private final double tolerance;
+
+    /**
+     * Stop when an iteration changes no labels
+     */
+    private final boolean stopOnStableLabels;
+
+    /**
+     * Stop after this many iterations without the objective improving, 0 disables
+     */
+    private final int patience;
+
+    /**
+     * The number of completed iterations
+     */
+    private int iteration;
+
+    /**
+     * The largest centroid shift recorded this iteration, NaN if none was recorded
+     */
+    private double centroidShift;
+
+    /**
+     * The number of labels changed this iteration, -1 if none was recorded
+     */
+    private int labelChanges;
+
+    /**
+     * The lowest objective value recorded so far
+     */
+    private double bestObjective;
+
+    /**
+     * The number of iterations since bestObjective last improved
+     */
+    private int sinceImprovement;
+
+    /**
+     * Why the run stopped, null while it is running
+     */
+    private String stopReason;
+
+    /**
+     * Constructor
+     * @param maxIterations the maximum number of iterations
+     * @param tolerance stop when no centroid moves further than this, negative disables
+     * @param stopOnStableLabels stop when an iteration changes no labels
+     * @param patience stop after this many iterations without the objective improving, 0 disables
+     */
+    public Convergence(int maxIterations, double tolerance, boolean stopOnStableLabels, int patience){
+        this.maxIterations = maxIterations;
+        this.tolerance = tolerance;
+        this.stopOnStableLabels = stopOnStableLabels;
+        this.patience = patience;
+        this.start();
+    }
+
+    /**
+     * Constructor using the criteria set in Driver
+     * @param maxIterations the maximum number of iterations
+     */
+    public Convergence(int maxIterations){
+        this(maxIterations, Driver.tolerance, Driver.stopOnStableLabels, Driver.patience);
+    }
+
+    /**
+     * Resets the state for a new run
+     */
+    public void start(){
+        this.iteration = 0;
+        this.bestObjective = Double.MAX_VALUE;
+        this.sinceImprovement = 0;
+        this.stopReason = this.maxIterations <= 0 ? "max iterations" : null;
+        this.clearIteration();
+    }
+
+    /**
+     * Records how far each centroid moved this iteration
+     * @param oldCentroids the centroids before the iteration
+     * @param newCentroids the centroids after the iteration
+     */
+    public void recordCentroids(double[][] oldCentroids, double[][] newCentroids){
+        double maxShiftSquared = 0;
+        for(int centIter = 0; centIter < oldCentroids.length; centIter++){
+            double shiftSquared = 0;
+            for(int dimIter = 0; dimIter < oldCentroids[centIter].length; dimIter++){
+                double diff = newCentroids[centIter][dimIter] - oldCentroids[centIter][dimIter];
+                shiftSquared += diff * diff;
+            }
+            // a NaN shift (an empty centroid) leaves the shift NaN, which never counts as converged
+            if(Double.isNaN(shiftSquared)){
+                this.centroidShift = Double.NaN;
+                return;
+            }
+            maxShiftSquared = Math.max(maxShiftSquared, shiftSquared);
+        }
+        this.centroidShift = Math.sqrt(maxShiftSquared);
+    }
+
+    /**
+     * Records how many labels changed this iteration
+     * @param labelChanges the number of datapoints whose label changed
+     */
+    public void recordLabelChanges(int labelChanges){
+        this.labelChanges = labelChanges;
+    }
+
+    /**
+     * Records the objective value reached this iteration, lower is better
+     * @param objective the objective value
+     */
+    public void recordObjective(double objective){
+        if(objective < this.bestObjective){
+            this.bestObjective = objective;
+            this.sinceImprovement = -1;
+        }
+    }
+
+    /**
+     * Ends an iteration and checks the stopping criteria against what was recorded during it
+     */
+    public void endIteration(){
+        this.iteration++;
+        this.sinceImprovement++;
+        if(this.stopOnStableLabels && this.labelChanges == 0){
+            this.stopReason = "labels stable";
+        }
+        else if(this.tolerance >= 0 && this.centroidShift <= this.tolerance){
+            this.stopReason = "centroid shift within tolerance";
+        }
+        else if(this.patience > 0 && this.sinceImprovement >= this.patience){
+            this.stopReason = "no improvement in " + this.patience + " iterations";
+        }
+        else if(this.iteration >= this.maxIterations){
+            this.stopReason = "max iterations";
+        }
+        this.clearIteration();
+    }
+
+    /**
+     * Returns true once the run should stop
+     * @return true once the run should stop
+     */
+    public boolean isDone(){
+        return this.stopReason != null;
+    }
+
+    /**
+     * Gets the number of completed iterations
+     * @return the number of completed iterations
+     */
+    public int getIterations(){
+        return this.iteration;
+    }
+
+    /**
+     * Gets why the run stopped
+     * @return why the run stopped, null while it is running
+     */
+    public String getStopReason(){
+        return this.stopReason;
+    }
+
+    /**
+     * Clears the values recorded for an iteration
+     */
+    private void clearIteration(){
+        this.centroidShift = Double.NaN;
+        this.labelChanges = -1;
+    }
+}
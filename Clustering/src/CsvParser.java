@@ -0,0 +1,273 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * A streaming parser for comma separated files of numbers
+ * Bytes are tokenized directly from a large read buffer, no String is created per line or per field,
+ * and the number of rows and columns is inferred while reading
+ * A stream can be parsed whole or in chunks of rows
+ */
+public class CsvParser {
+
+    /**
+     * The size of the read buffer in bytes
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * The longest mantissa (in decimal digits) that is exactly representable as a double
+     */
+    private static final int MAX_FAST_DIGITS = 15;
+
+    /**
+     * Powers of ten that are exactly representable as doubles
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * The stream being parsed
+     */
+    private final InputStream in;
+
+    /**
+     * The read buffer
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The index of the next unparsed byte in buffer
+     */
+    private int bufferPos;
+
+    /**
+     * The number of valid bytes in buffer
+     */
+    private int bufferLimit;
+
+    /**
+     * True once the end of the stream has been reached
+     */
+    private boolean finished;
+
+    /**
+     * The parsed values in row-major order, grown as needed
+     */
+    private double[] values = new double[1024];
+
+    /**
+     * The number of values in values
+     */
+    private int numValues;
+
+    /**
+     * The number of columns, -1 until the first row ends
+     */
+    private int numAttrs = -1;
+
+    /**
+     * The number of complete rows in values
+     */
+    private int numRows;
+
+    /**
+     * The number of rows parsed from the stream, used in error messages
+     */
+    private long totalRows;
+
+    /**
+     * The number of values in the row being parsed
+     */
+    private int numInRow;
+
+    /**
+     * The bytes of the field being parsed
+     */
+    private byte[] field = new byte[64];
+
+    /**
+     * The number of bytes in field
+     */
+    private int fieldLength;
+
+    /**
+     * The number of bytes read from the stream
+     */
+    private long bytesRead;
+
+    /**
+     * Constructor, the stream is not closed by the parser
+     * @param in the stream of comma separated numbers, lines end in \n, \r\n or \r
+     */
+    public CsvParser(InputStream in){
+        this.in = in;
+    }
+
+    /**
+     * Parses the rest of the stream into a data set
+     * @return the data set
+     * @throws IOException if the stream cannot be read, a field is not a number, or rows differ in length
+     */
+    public Dataset parse() throws IOException{
+        this.readRows(Integer.MAX_VALUE);
+        return new Dataset(this.values, this.numRows, Math.max(this.numAttrs, 0));
+    }
+
+    /**
+     * Parses up to maxRows more rows of the stream
+     * The chunk shares its storage with this parser, so it is only valid until the next call
+     * @param maxRows the maximum number of rows in the chunk
+     * @return the chunk, with zero rows once the stream is exhausted
+     * @throws IOException if the stream cannot be read, a field is not a number, or rows differ in length
+     */
+    public Dataset nextChunk(int maxRows) throws IOException{
+        this.numRows = 0;
+        this.numValues = 0;
+        this.readRows(maxRows);
+        return new Dataset(this.values, this.numRows, Math.max(this.numAttrs, 0));
+    }
+
+    /**
+     * Gets the number of bytes read from the stream
+     * @return the number of bytes read
+     */
+    public long getBytesRead(){
+        return this.bytesRead;
+    }
+
+    /**
+     * Parses bytes until maxRows rows are in values or the stream ends
+     * @param maxRows the number of rows to stop at
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    private void readRows(int maxRows) throws IOException{
+        while(this.numRows < maxRows){
+            // refill the buffer
+            if(this.bufferPos == this.bufferLimit){
+                if(this.finished){
+                    return;
+                }
+                int numRead = this.in.read(this.buffer);
+                if(numRead == -1){
+                    this.finished = true;
+                    this.endRow();
+                    return;
+                }
+                this.bytesRead += numRead;
+                this.bufferPos = 0;
+                this.bufferLimit = numRead;
+            }
+
+            // tokenize the buffered bytes
+            int bytePos = this.bufferPos;
+            while(bytePos < this.bufferLimit && this.numRows < maxRows){
+                byte current = this.buffer[bytePos++];
+                if(current == ','){
+                    this.endField();
+                }
+                else if(current == '\n' || current == '\r'){
+                    this.endRow();
+                }
+                else if(current != ' ' && current != '\t'){
+                    if(this.fieldLength == this.field.length){
+                        this.field = Arrays.copyOf(this.field, this.field.length * 2);
+                    }
+                    this.field[this.fieldLength++] = current;
+                }
+            }
+            this.bufferPos = bytePos;
+        }
+    }
+
+    /**
+     * Parses the current field and appends it to the values
+     * @throws IOException if the field is not a number
+     */
+    private void endField() throws IOException{
+        if(this.numValues == this.values.length){
+            this.values = Arrays.copyOf(this.values, this.values.length * 2);
+        }
+        this.values[this.numValues++] = this.parseField();
+        this.numInRow++;
+        this.fieldLength = 0;
+    }
+
+    /**
+     * Ends the current row, blank lines are skipped
+     * @throws IOException if the row has a different number of values than the first row
+     */
+    private void endRow() throws IOException{
+        if(this.fieldLength == 0 && this.numInRow == 0){
+            return;
+        }
+        this.endField();
+        if(this.numAttrs == -1){
+            this.numAttrs = this.numInRow;
+        }
+        else if(this.numInRow != this.numAttrs){
+            throw new IOException("Row " + (this.totalRows + 1) + " has " + this.numInRow + " values, expected " + this.numAttrs);
+        }
+        this.numRows++;
+        this.totalRows++;
+        this.numInRow = 0;
+    }
+
+    /**
+     * Parses the bytes of the current field as a double
+     * Plain decimals with at most 15 significant digits are parsed exactly without allocating,
+     * anything else (exponents, long mantissas, NaN) goes through Double.parseDouble
+     * @return the value of the field
+     * @throws IOException if the field is not a number
+     */
+    private double parseField() throws IOException{
+        int byteIter = 0;
+        boolean negative = false;
+        if(this.fieldLength > 0 && (this.field[0] == '-' || this.field[0] == '+')){
+            negative = this.field[0] == '-';
+            byteIter++;
+        }
+
+        long mantissa = 0;
+        int numDigits = 0;
+        int numFractionDigits = 0;
+        boolean seenPoint = false;
+        boolean seenDigit = false;
+        boolean fast = byteIter < this.fieldLength;
+        for(; byteIter < this.fieldLength && fast; byteIter++){
+            byte current = this.field[byteIter];
+            if(current >= '0' && current <= '9'){
+                // leading zeros are not significant
+                if(mantissa != 0 || current != '0'){
+                    numDigits++;
+                }
+                mantissa = mantissa * 10 + (current - '0');
+                seenDigit = true;
+                if(seenPoint){
+                    numFractionDigits++;
+                }
+            }
+            else if(current == '.' && !seenPoint){
+                seenPoint = true;
+            }
+            else{
+                fast = false;
+            }
+        }
+
+        if(fast && seenDigit && numDigits <= MAX_FAST_DIGITS && numFractionDigits < POWERS_OF_TEN.length){
+            // both operands are exact, so the single division is correctly rounded
+            double value = mantissa / POWERS_OF_TEN[numFractionDigits];
+            return negative ? -value : value;
+        }
+        String text = new String(this.field, 0, this.fieldLength, "US-ASCII");
+        try{
+            return Double.parseDouble(text);
+        }
+        catch(NumberFormatException e){
+            throw new IOException("Row " + (this.totalRows + 1) + " has a value that is not a number: \"" + text + "\"");
+        }
+    }
+}
@@ -1,12 +1,19 @@
 import java.util.ArrayList;
+import java.util.Random;
 
 /**
  * DB-Scan clustering
  */
 public class DBScan extends Clustering{
-    private double theta = Driver.theta; //distance threshold
-    private int minPts = Driver.minPoints;  //num points within dist. threshold to be considered core point
-    private DB_point[] dbPoints;    //dataset
+    protected double theta = Driver.theta; //distance threshold
+    protected boolean autoTheta = Driver.autoTheta;   //estimate theta from the data before clustering
+    private long seed = Driver.seed;    //picks the rows sampled when estimating theta
+    protected int minPts = Driver.minPoints;  //num points within dist. threshold to be considered core point
+    protected DB_point[] dbPoints;  //dataset
+    protected Dataset data;         //values of the points in dbPoints
+    protected String indexType = Driver.spatialIndex;     //spatial index used for neighbourhood queries
+    protected long maxCacheBytes = Driver.neighbourCacheMB * 1024L * 1024L; //memory bound of the cached neighbour lists
+    protected SpatialIndex index;   //finds the points within theta of a point
 
     /**
      * DB-Scan clustering
@@ -14,53 +21,88 @@ public class DBScan extends Clustering{
      * @param numClusters not used
      */
     @Override
-    public int[] cluster(Double[][] data, int numClusters){
+    public int[] cluster(Dataset data, int numClusters){
+        this.data = data;
+        estimateTheta(data, 1);
+        this.index = getIndex(data, 1);
         int[] dbLabels = labelData(data); //0 = noise, 1 = boarder, 2 = core
 
-        this.dbPoints = new DB_point[data.length];
-        for (int dataIter = 0; dataIter < data.length; dataIter++) {
-            this.dbPoints[dataIter] = new DB_point(data[dataIter], dbLabels[dataIter]);
+        this.dbPoints = new DB_point[data.getNumRows()];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            this.dbPoints[dataIter] = new DB_point(dataIter, dbLabels[dataIter]);
         }
         int[] clusterLabels = getClusterLabels();
         return clusterLabels;
     }
 
+    /**
+     * Replaces theta with an estimate from the k-distance curve of a sample when auto theta is on, and
+     * logs the estimate so it can be passed to later runs
+     * @param data dataset to cluster
+     * @param numThreads number of threads computing the k-distances
+     */
+    protected void estimateTheta(Dataset data, int numThreads) {
+        if(!this.autoTheta || data.getNumRows() < 2){
+            return;
+        }
+        long startNanos = System.nanoTime();
+        //a core point has minPts points within theta counting itself, so look at the (minPts - 1)-th other point
+        ThetaEstimator estimator = new ThetaEstimator(data, this.minPts - 1, new Random(this.seed), numThreads);
+        this.theta = estimator.getTheta();
+        System.out.printf("Estimated theta: %.6f from %d sampled rows, %.0f%% of them core, in %.1f ms (reuse with -th %.6f)%n",
+                this.theta, estimator.getNumSamples(), 100 * estimator.getCoreFraction(), (System.nanoTime() - startNanos) / 1e6, this.theta);
+    }
+
+    /**
+     * Builds the index for the neighbourhood queries, caching every neighbourhood as lists when they fit in
+     * the memory bound so each region query runs only once, and falling back to on-demand queries otherwise
+     * @param data dataset to index
+     * @param numThreads number of threads building the neighbour lists
+     * @return the index
+     */
+    protected SpatialIndex getIndex(Dataset data, int numThreads) {
+        SpatialIndex queries = SpatialIndex.create(data, this.theta, this.indexType);
+        NeighbourLists lists = NeighbourLists.build(queries, data.getNumRows(), this.maxCacheBytes, numThreads);
+        if(lists == null){
+            System.out.printf("Neighbour lists exceed %.1f MB, using on-demand queries%n", this.maxCacheBytes / 1048576.0);
+            return queries;
+        }
+        System.out.printf("Neighbour lists: %d entries, %.1f MB%n", lists.getNumEntries(), lists.getMemoryBytes() / 1048576.0);
+        return lists;
+    }
+
     /**
      * Labels all points as follows:
      * 0 = noise, 1 = border, 2 = core
      * @param data data to be labeled
      */
-    private int[] labelData(Double[][] data) {
-        int[] labels = new int[data.length];
+    private int[] labelData(Dataset data) {
+        int[] labels = new int[data.getNumRows()];
 
         //label core points
-        for (int dataIter = 0; dataIter < data.length; dataIter++) {
-            //number of points within theta of current point
-            int numPts = 0;
-            for (int scanIter = 0; scanIter < data.length; scanIter++) {
-                //if a point is within theta distance of first point
-                if(getDistance(data[dataIter], data[scanIter]) <= this.theta){
-                    numPts++; //count it
-                }
-            }
+        int[] counted = new int[1];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            //number of points within theta of current point, stop counting once it is a core
+            counted[0] = 0;
+            int numPts = this.index.forEachNeighbour(dataIter, (neighbour) -> ++counted[0] < this.minPts);
             if(numPts >= this.minPts){
                 labels[dataIter] = 2;
             }
         }
 
         //label border points
-        for (int dataIter = 0; dataIter < data.length; dataIter++) {
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
             //if point is not a core
             if(labels[dataIter] != 2){
-                for (int scanIter = 0; scanIter < data.length; scanIter++) {
-
-                    //if a core point is within theta distance of non core point
-                    if(labels[scanIter] == 2 && getDistance(data[dataIter], data[scanIter]) <= this.theta){
-                        labels[dataIter] = 1; //label non core point boarder then break out of loop
-                        break;
-
+                //stop at the first core point within theta distance of non core point
+                int row = dataIter;
+                this.index.forEachNeighbour(dataIter, (neighbour) -> {
+                    if(labels[neighbour] == 2){
+                        labels[row] = 1; //label non core point boarder
+                        return false;
                     }
-                }
+                    return true;
+                });
             }
         }
         return labels;
@@ -80,46 +122,87 @@ public class DBScan extends Clustering{
                 clusterNum++;
             }
         }
-        //find centers of current clusters
-        ArrayList<Double[]> centers = new ArrayList<>();
-        //for every cluster
-        for (int clusterIter = 0; clusterIter < clusterNum; clusterIter++) {
-            //make a center
-            double[] center = new double[this.dbPoints[0].getValue().length];
-            int divisor = 0;
-            //for all points in current cluster
-            for (DB_point point: this.dbPoints) {
-                if(point.getCluster() == clusterIter){
-                    //add dimensions to center
-                    for (int dimIter = 0; dimIter < center.length; dimIter++) {
-                        center[dimIter] += point.getValue()[dimIter];
-                        divisor++;
-                    }
+        double[] centers = getCenters(clusterNum);
+
+        //add non core points to cluster with closest center
+        assignToNearestCenter(0, this.dbPoints.length, centers, clusterNum);
+        return getLabels();
+    }
 
+    /**
+     * Finds the centers of the clusters of the core points in a single pass over the points
+     * @param clusterNum the number of clusters
+     * @return the centers one after another, attribute j of center i at [i * numAttrs + j]
+     */
+    protected double[] getCenters(int clusterNum) {
+        int numAttrs = this.data.getNumAttrs();
+        double[] centers = new double[clusterNum * numAttrs];
+        int[] divisors = new int[clusterNum];
+        //add the dimensions of every clustered point to the center of its cluster
+        for (DB_point point: this.dbPoints) {
+            if(point.getCluster() != -1){
+                int offset = point.getCluster() * numAttrs;
+                for (int dimIter = 0; dimIter < numAttrs; dimIter++) {
+                    centers[offset + dimIter] += this.data.get(point.getRow(), dimIter);
                 }
+                divisors[point.getCluster()]++;
             }
-            //take average of all values from all points in cluster
-            Double[] center2 = new Double[center.length];
-            for (int dimIter = 0; dimIter < center.length; dimIter++) {
-                center2[dimIter] = new Double(center[dimIter] /= divisor);
+        }
+        //take average of all values from all points in cluster
+        for (int clusterIter = 0; clusterIter < clusterNum; clusterIter++) {
+            for (int dimIter = 0; dimIter < numAttrs; dimIter++) {
+                centers[clusterIter * numAttrs + dimIter] /= divisors[clusterIter];
             }
-            centers.add(center2);
         }
+        return centers;
+    }
 
-        //add non core points to cluster with closest center
-        //for all points not in a cluster
-        for (DB_point point: this.dbPoints) {
-            if(point.getCluster() == -1){
-                Double[] distances = new Double[centers.size()];
-                //find distance from point to center of each cluster
-                for (int distIter = 0; distIter < centers.size(); distIter++) {
-                    distances[distIter] = getDistance(point.getValue(), centers.get(distIter));
+    /**
+     * Adds every point of a range that is not in a cluster to the cluster with the closest center,
+     * without allocating; when there are no clusters every point is put in cluster 0
+     * @param start index of the first point
+     * @param end one past the index of the last point
+     * @param centers the cluster centers, from getCenters
+     * @param clusterNum the number of clusters
+     */
+    protected void assignToNearestCenter(int start, int end, double[] centers, int clusterNum) {
+        int numAttrs = this.data.getNumAttrs();
+        for (int dataIter = start; dataIter < end; dataIter++) {
+            if(this.dbPoints[dataIter].getCluster() != -1){
+                continue;
+            }
+            //find the center with the smallest squared distance
+            int minIndex = 0;
+            double min = Double.MAX_VALUE;
+            for (int clusterIter = 0; clusterIter < clusterNum; clusterIter++) {
+                double distance = this.data.distanceSquared(dataIter, centers, clusterIter * numAttrs);
+                if (min > distance){
+                    min = distance;
+                    minIndex = clusterIter;
                 }
-                //set cluster to closest center
-                point.setCluster(findMinIndex(distances));
             }
+            this.dbPoints[dataIter].setCluster(minIndex);
         }
+    }
+
+    /**
+     * Runs only the center and nearest-center stage of clustering: finds the centers of the points that are
+     * in a cluster and adds every other point to the cluster with the closest center, used by Benchmark
+     * @param data the data set
+     * @param points the point of every row, with the cluster of every clustered point set, updated in place
+     * @param clusterNum the number of clusters
+     */
+    void assignToCenters(Dataset data, DB_point[] points, int clusterNum) {
+        this.data = data;
+        this.dbPoints = points;
+        assignToNearestCenter(0, points.length, getCenters(clusterNum), clusterNum);
+    }
 
+    /**
+     * Gets the cluster of every point
+     * @return labels for evaluation
+     */
+    protected int[] getLabels() {
         //get all labels from this.dbPoints so the driver can evaluate them
         int[] clustLabels = new int[this.dbPoints.length];
         for (int labelIter = 0; labelIter < this.dbPoints.length; labelIter++) {
@@ -140,22 +223,22 @@ public class DBScan extends Clustering{
         boolean clusterComplete = false;                            //declare stopping variable
 
         while(!clusterComplete) {
-            clusterComplete = true;     //if no new points are added to the cluster then cluster is complete
             ArrayList<DB_point> newPoints = new ArrayList<>();  //stores all new points added for each iteration of while loop
             for (DB_point point : cluster) {                                                                     //for all points in current cluster
 
-                for (int dataIter = 0; dataIter < this.dbPoints.length; dataIter++) {                           //for every point in the dataset
+                this.index.forEachNeighbour(point.getRow(), (neighbour) -> {                                    //for every point within theta of cluster point
 
-                    if (this.dbPoints[dataIter].getDbLabel() == 2 &&                                            //if point is core and
-                            this.dbPoints[dataIter].getCluster() == -1 &&                                       //point is not in a cluster and
-                            getDistance(this.dbPoints[dataIter].getValue(), point.getValue()) <= theta) {       //point is within theta of cluster point
+                    if (this.dbPoints[neighbour].getDbLabel() == 2 &&                                           //if point is core and
+                            this.dbPoints[neighbour].getCluster() == -1) {                                      //point is not in a cluster
 
-                        newPoints.add(this.dbPoints[dataIter]);                                                 //add point to to next iteration of while loop
-                        this.dbPoints[dataIter].setCluster(clusterNum);                                         //label point as in current cluster
-                        clusterComplete = false;                                                                //new point added to cluster, must repeat while loop
+                        newPoints.add(this.dbPoints[neighbour]);                                                //add point to to next iteration of while loop
+                        this.dbPoints[neighbour].setCluster(clusterNum);                                        //label point as in current cluster
                     }
-                }
+                    return true;
+                });
             }
+            //if no new points are added to the cluster then cluster is complete
+            clusterComplete = newPoints.isEmpty();
             //only loop through the new points added to cluster each time -- saves time
             cluster = newPoints;
         }
@@ -163,44 +246,35 @@ public class DBScan extends Clustering{
 
 
     /**
-     * Finds the distance between point1 and point2
-     * @param point1
-     * @param point2
-     * @return distance between point1 and point2
+     * Sets the theta value
+     * @param theta the theta value
      */
-    private double getDistance(Double[] point1, Double[] point2) {
-        double sum = 0.0;
-        for (int dimIter = 0; dimIter < point1.length; dimIter++) {
-            sum += Math.pow( point1[dimIter] - point2[dimIter],2);
-        }
-        return Math.sqrt(sum);
+    public void setTheta(double theta){
+        this.theta = theta;
     }
 
+    /**
+     * Sets whether theta is estimated from the data before clustering
+     * @param autoTheta true to estimate theta
+     */
+    public void setAutoTheta(boolean autoTheta){
+        this.autoTheta = autoTheta;
+    }
 
     /**
-     * Finds the index with the smallest value
-     * @param distances array to find min value in
-     * @return Index of the min value
+     * Sets the seed used to sample rows when estimating theta
+     * @param seed the seed
      */
-    private int findMinIndex(Double[] distances) {
-        double min = distances[0];
-        int minIndex = 0;
-        //loops through all distances and finds the index of the minimum value
-        for (int distIter = 0; distIter < distances.length; distIter++) {
-            if (min > distances[distIter]){
-                min = distances[distIter];
-                minIndex = distIter;
-            }
-        }
-        return minIndex;
+    public void setSeed(long seed){
+        this.seed = seed;
     }
 
     /**
-     * Sets the theta value
-     * @param theta the theta value
+     * Gets the theta value, the estimate after a run with auto theta
+     * @return the theta value
      */
-    public void setTheta(double theta){
-        this.theta = theta;
+    public double getTheta(){
+        return this.theta;
     }
 
     /**
@@ -210,4 +284,20 @@ public class DBScan extends Clustering{
     public void setMinPts(int minPts){
         this.minPts = minPts;
     }
+
+    /**
+     * Sets the spatial index used for neighbourhood queries
+     * @param indexType the index type, see SpatialIndex
+     */
+    public void setIndexType(String indexType){
+        this.indexType = indexType;
+    }
+
+    /**
+     * Sets the memory bound of the cached neighbour lists, 0 always uses on-demand queries
+     * @param maxCacheBytes the most memory the neighbour lists may use
+     */
+    public void setMaxCacheBytes(long maxCacheBytes){
+        this.maxCacheBytes = maxCacheBytes;
+    }
 }
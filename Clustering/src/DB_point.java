@@ -4,18 +4,18 @@ import java.util.ArrayList;
  * Datapoints in db-scan
  */
 public class DB_point{
-    private final Double[] value;   //holds the data values
+    private final int row;          //index of this point in the dataset
     private final int dbLabel;      //0 = noise 1 = border 2 = core
     private int cluster;            //represents the cluster this point belongs to
 
-    public DB_point(Double[] value, int dbLabel){
-        this.value = value;
+    public DB_point(int row, int dbLabel){
+        this.row = row;
         this.dbLabel = dbLabel;
         this.cluster = -1;
     }
 
-    public Double[] getValue() {
-        return value;
+    public int getRow() {
+        return row;
     }
 
     public int getCluster() {
@@ -1,5 +1,12 @@
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 /**
  * A container for five data sets
@@ -9,16 +16,15 @@ public class Data {
     /**
      * The five data sets
      */
-    private static Double[][] haberman, iris, wine, road, htru2;
+    private static Dataset haberman, iris, wine, road, htru2;
 
     /**
      * TODO
      * Gets the Habermans data set
      * @return the Habermans data set
      */
-    public static Double[][] getHaberman(){
-        Scanner fileScanner = new Scanner(Thread.currentThread().getContextClassLoader().getResourceAsStream("haberman.data"));
-        return Data.getDataset(fileScanner, 306, 3);
+    public static Dataset getHaberman(){
+        return Data.getDataset("haberman.data");
     }
 
     /**
@@ -26,9 +32,8 @@ public class Data {
      * Gets the Iris data set
      * @return the Iris data set
      */
-    public static Double[][] getIris(){
-        Scanner fileScanner = new Scanner(Thread.currentThread().getContextClassLoader().getResourceAsStream("iris.data"));
-        return Data.getDataset(fileScanner, 150, 4);
+    public static Dataset getIris(){
+        return Data.getDataset("iris.data");
     }
 
     /**
@@ -36,9 +41,8 @@ public class Data {
      * Gets the  Wine data set
      * @return the Wine data set
      */
-    public static Double[][] getWine(){
-        Scanner fileScanner = new Scanner(Thread.currentThread().getContextClassLoader().getResourceAsStream("wine.data"));
-        return Data.getDataset(fileScanner, 178, 13);
+    public static Dataset getWine(){
+        return Data.getDataset("wine.data");
     }
 
     /**
@@ -46,9 +50,8 @@ public class Data {
      * Gets the 3d-Road Network data set
      * @return the 3d-Road Network data set
      */
-    public static Double[][] getRoad(){
-        Scanner fileScanner = new Scanner(Thread.currentThread().getContextClassLoader().getResourceAsStream("3D_spatial_road_network_denmark.data"));
-        return Data.getDataset(fileScanner, 50000, 4);
+    public static Dataset getRoad(){
+        return Data.getDataset("3D_spatial_road_network_denmark.data");
     }
 
     /**
@@ -56,33 +59,87 @@ public class Data {
      * Gets the htru2 data set
      * @return the htru2 data set
      */
-    public static Double[][] getHtru2(){
-        Scanner fileScanner = new Scanner(Thread.currentThread().getContextClassLoader().getResourceAsStream("HTRU_2.data"));
-        return Data.getDataset(fileScanner, 17898, 8);
+    public static Dataset getHtru2(){
+        return Data.getDataset("HTRU_2.data");
     }
 
     /**
-     * Given a filescanner for a comma separated data file, returns the data set in doubles
-     * @param fileScanner the scanner for the data set
-     * @return the data set in terms of doubles
+     * Loads a data set from a file, .bin files are memory-mapped and anything else is parsed as CSV
+     * @param path the path of the file
+     * @return the data set
+     * @throws IOException if the file cannot be read or is malformed
      */
-    private static Double[][] getDataset(Scanner fileScanner, int numEntries, int numAttrs){
-        Double[][] dataset = new Double[numEntries][numAttrs];
-        int lineIter = 0;
-        do{
-            try{
-                String line = fileScanner.nextLine();
-                String[] entries = line.split(",");
-                for(int entryIter = 0; entryIter < numAttrs; entryIter++){
-                    dataset[lineIter][entryIter] = Double.parseDouble(entries[entryIter]);
-                }
-                lineIter++;
+    public static Dataset getDataset(Path path) throws IOException{
+        if(path.getFileName().toString().endsWith(".bin")){
+            return BinaryData.map(path);
+        }
+        try(InputStream in = Files.newInputStream(path)){
+            return Data.parseCsv(path.getFileName().toString(), in);
+        }
+    }
+
+    /**
+     * Parses a comma separated stream into a data set, reporting the parse throughput
+     * @param name the name of the data set, used in the report
+     * @param in the stream
+     * @return the data set
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    public static Dataset parseCsv(String name, InputStream in) throws IOException{
+        long startNanos = System.nanoTime();
+        CsvParser parser = new CsvParser(in);
+        Dataset dataset = parser.parse();
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        double megabytes = parser.getBytesRead() / (1024.0 * 1024.0);
+        System.out.printf("Parsed %s: %dx%d, %.2f MB in %.1f ms (%.1f MB/s)%n", name, dataset.getNumRows(), dataset.getNumAttrs(),
+                megabytes, seconds * 1000, megabytes / seconds);
+        return dataset;
+    }
+
+    /**
+     * Loads a data set resource, memory-mapping its binary copy if one exists and is not stale, otherwise parsing the CSV
+     * @param fileName the name of the CSV resource
+     * @return the data set
+     */
+    private static Dataset getDataset(String fileName){
+        Dataset binary = Data.getBinaryDataset(BinaryData.getBinaryName(fileName), fileName);
+        if(binary != null){
+            return binary;
+        }
+        InputStream resource = Thread.currentThread().getContextClassLoader().getResourceAsStream(fileName);
+        try{
+            if(resource == null){
+                throw new FileNotFoundException(fileName + " is not on the classpath");
             }
-            catch(NoSuchElementException e){
-                break;
+            try(InputStream in = resource){
+                return Data.parseCsv(fileName, in);
             }
         }
-        while(true);
-        return dataset;
+        catch(IOException e){
+            throw new UncheckedIOException("Could not load " + fileName, e);
+        }
+    }
+
+    /**
+     * Memory-maps a binary data set resource, checking it against its CSV resource when that is a plain file
+     * @param binaryName the name of the binary resource
+     * @param fileName the name of the CSV resource it was converted from
+     * @return the data set, or null if the resource does not exist, is not a plain file, is invalid, or is stale
+     */
+    private static Dataset getBinaryDataset(String binaryName, String fileName){
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        URL url = loader.getResource(binaryName);
+        if(url == null || !url.getProtocol().equals("file")){
+            return null;
+        }
+        URL sourceUrl = loader.getResource(fileName);
+        try{
+            Path source = sourceUrl != null && sourceUrl.getProtocol().equals("file") ? Paths.get(sourceUrl.toURI()) : null;
+            return BinaryData.map(Paths.get(url.toURI()), source);
+        }
+        catch(IOException | URISyntaxException e){
+            System.out.println("Ignoring " + binaryName + ": " + e.getMessage());
+            return null;
+        }
     }
 }
@@ -0,0 +1,206 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * A row-major data set of primitive doubles
+ * All rows are stored back to back, either in one flat double[] on the heap
+ * or in a DoubleBuffer that may live off-heap
+ */
+public class Dataset {
+
+    /**
+     * The values of the data set when stored on the heap, null otherwise
+     * entry [row * numAttrs + attr] holds attribute attr of data point row
+     */
+    private final double[] values;
+
+    /**
+     * The values of the data set when stored in a buffer, null otherwise
+     * laid out the same way as values
+     */
+    private final DoubleBuffer buffer;
+
+    /**
+     * The number of data points (rows)
+     */
+    private final int numRows;
+
+    /**
+     * The number of attributes per data point (columns)
+     */
+    private final int numAttrs;
+
+    /**
+     * Constructor for a heap data set
+     * @param values the row-major values, length numRows * numAttrs
+     * @param numRows the number of data points
+     * @param numAttrs the number of attributes per data point
+     */
+    public Dataset(double[] values, int numRows, int numAttrs){
+        if(values.length < (long) numRows * numAttrs){
+            throw new IllegalArgumentException("Expected " + numRows + "x" + numAttrs + " values but got " + values.length);
+        }
+        this.values = values;
+        this.buffer = null;
+        this.numRows = numRows;
+        this.numAttrs = numAttrs;
+    }
+
+    /**
+     * Constructor for a buffer backed data set
+     * @param buffer the row-major values, starting at index 0
+     * @param numRows the number of data points
+     * @param numAttrs the number of attributes per data point
+     */
+    public Dataset(DoubleBuffer buffer, int numRows, int numAttrs){
+        if(buffer.capacity() < (long) numRows * numAttrs){
+            throw new IllegalArgumentException("Expected " + numRows + "x" + numAttrs + " values but got " + buffer.capacity());
+        }
+        this.values = null;
+        this.buffer = buffer;
+        this.numRows = numRows;
+        this.numAttrs = numAttrs;
+    }
+
+    /**
+     * Copies a boxed data set into a heap data set
+     * @param data the boxed data set, every row must have the same length
+     * @return the data set
+     */
+    public static Dataset fromArray(Double[][] data){
+        int numAttrs = data.length > 0 ? data[0].length : 0;
+        double[] values = new double[data.length * numAttrs];
+        for(int rowIter = 0; rowIter < data.length; rowIter++){
+            for(int attrIter = 0; attrIter < numAttrs; attrIter++){
+                values[rowIter * numAttrs + attrIter] = data[rowIter][attrIter];
+            }
+        }
+        return new Dataset(values, data.length, numAttrs);
+    }
+
+    /**
+     * Copies this data set into a direct (off-heap) buffer
+     * @return the off-heap copy of this data set
+     */
+    public Dataset toDirect(){
+        int size = this.numRows * this.numAttrs;
+        DoubleBuffer direct = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        for(int valueIter = 0; valueIter < size; valueIter++){
+            direct.put(valueIter, this.get(valueIter));
+        }
+        return new Dataset(direct, this.numRows, this.numAttrs);
+    }
+
+    /**
+     * Gets a single attribute of a data point
+     * @param row the index of the data point
+     * @param attr the index of the attribute
+     * @return the attribute value
+     */
+    public double get(int row, int attr){
+        return this.get(row * this.numAttrs + attr);
+    }
+
+    /**
+     * Gets a value by its flat row-major index
+     * @param index row * numAttrs + attr
+     * @return the value
+     */
+    private double get(int index){
+        return this.values != null ? this.values[index] : this.buffer.get(index);
+    }
+
+    /**
+     * Copies a data point into a destination array
+     * @param row the index of the data point
+     * @param dest array of at least numAttrs entries
+     * @return dest
+     */
+    public double[] getRow(int row, double[] dest){
+        int offset = row * this.numAttrs;
+        if(this.values != null){
+            System.arraycopy(this.values, offset, dest, 0, this.numAttrs);
+        }
+        else{
+            for(int attrIter = 0; attrIter < this.numAttrs; attrIter++){
+                dest[attrIter] = this.buffer.get(offset + attrIter);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * Computes the squared euclidean distance between a data point and an arbitrary point
+     * @param row the index of the data point
+     * @param point the other point, at least numAttrs entries
+     * @return the squared distance
+     */
+    public double distanceSquared(int row, double[] point){
+        int offset = row * this.numAttrs;
+        double sum = 0;
+        for(int attrIter = 0; attrIter < this.numAttrs; attrIter++){
+            double diff = this.get(offset + attrIter) - point[attrIter];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the squared euclidean distance between a data point and a point stored inside a larger array
+     * @param row the index of the data point
+     * @param points the array holding the other point
+     * @param offset the index of the first attribute of the other point in points
+     * @return the squared distance
+     */
+    public double distanceSquared(int row, double[] points, int offset){
+        int rowOffset = row * this.numAttrs;
+        double sum = 0;
+        for(int attrIter = 0; attrIter < this.numAttrs; attrIter++){
+            double diff = this.get(rowOffset + attrIter) - points[offset + attrIter];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the squared euclidean distance between two data points
+     * @param row the index of the first data point
+     * @param otherRow the index of the second data point
+     * @return the squared distance
+     */
+    public double distanceSquared(int row, int otherRow){
+        int offset = row * this.numAttrs;
+        int otherOffset = otherRow * this.numAttrs;
+        double sum = 0;
+        for(int attrIter = 0; attrIter < this.numAttrs; attrIter++){
+            double diff = this.get(offset + attrIter) - this.get(otherOffset + attrIter);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Returns true if this data set is backed by a buffer rather than a heap array
+     * @return true if this data set is backed by a buffer
+     */
+    public boolean isDirect(){
+        return this.values == null;
+    }
+
+    /**
+     * Gets the number of data points
+     * @return the number of data points
+     */
+    public int getNumRows(){
+        return this.numRows;
+    }
+
+    /**
+     * Gets the number of attributes per data point
+     * @return the number of attributes per data point
+     */
+    public int getNumAttrs(){
+        return this.numAttrs;
+    }
+}
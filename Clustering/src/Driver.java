@@ -1,3 +1,7 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
 import java.util.regex.Pattern;
 
 /**
@@ -11,10 +15,57 @@ public class Driver {
     private static Clustering clusteringAlgorithm;
 
     /**
-     * Max iterations, used by ACO, PSO, and KMeans
+     * Max iterations, used by ACO, PSO, KMeans, and mini-batch KMeans
      */
     public static int maxIter = 100;
 
+    /**
+     * Convergence criteria, used by ACO, PSO, KMeans, and mini-batch KMeans (see Convergence)
+     * tolerance: stop when no centroid moves further than this, negative disables
+     * stopOnStableLabels: stop when an iteration changes no labels, false disables
+     * patience: stop after this many iterations without the objective improving, 0 disables
+     */
+    public static double tolerance = 0.0;
+    public static boolean stopOnStableLabels = true;
+    public static int patience = 0;
+
+    /**
+     * Number of threads used by parallel algorithms
+     */
+    public static int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Seed for the random number generators of seeded algorithms, random unless set
+     */
+    public static long seed = new Random().nextLong();
+
+    /**
+     * How KMeans, mini-batch KMeans, and PSO pick their initial centroids, see Seeding
+     * k-means++ by default, so a seed gives different centroids than the original random seeding; -se random restores it
+     */
+    public static String seeding = Seeding.KMEANS_PLUS_PLUS;
+
+    /**
+     * Stores the data set in an off-heap buffer rather than a heap array
+     */
+    public static boolean offHeap = false;
+
+    /**
+     * Rows per chunk when streaming the data set from disk, 0 loads the whole data set
+     */
+    public static int chunkSize = 0;
+
+    /**
+     * Mini-batch KMeans parameters
+     */
+    public static int batchSize = 1000;
+
+    /**
+     * Rows in the stratified sample ACO and PSO evaluate candidates on, doubling as the search converges,
+     * 0 evaluates every row (see FitnessSample)
+     */
+    public static int sampleSize = 0;
+
     /**
      * ACO parameters
      */
@@ -35,7 +86,11 @@ public class Driver {
      * DB-Scan parameters
      */
     public static double theta = 1.0;
+    public static boolean autoTheta = false;
     public static int minPoints = 40;
+    public static String spatialIndex = SpatialIndex.AUTO;
+    public static int neighbourCacheMB = 256;
+    public static boolean mostStable = false;
 
     /**
      * Neural Network parameters
@@ -69,6 +124,100 @@ public class Driver {
                             System.exit(0);
                         }
                         break;
+                    // centroid shift tolerance
+                    case "-to":
+                        if(argIter + 1 < args.length && Pattern.matches("-?\\d+(\\.\\d+)?", args[argIter + 1])){
+                            Driver.tolerance = Double.parseDouble(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-to must be followed by a number for the centroid shift tolerance, negative disables it\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // stable labels
+                    case "-sl":
+                        if(argIter + 1 < args.length && Pattern.matches("on|off", args[argIter + 1])){
+                            Driver.stopOnStableLabels = args[++argIter].equals("on");
+                        }
+                        else{
+                            System.out.println("-sl must be followed by on or off for stopping once an iteration changes no labels\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // patience
+                    case "-pa":
+                        if(argIter + 1 < args.length && Pattern.matches("\\d+", args[argIter + 1])){
+                            Driver.patience = Integer.parseInt(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-pa must be followed by an integer for the number of iterations without improvement before stopping, 0 disables it\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // number of threads
+                    case "-nt":
+                        if(argIter + 1 < args.length && Pattern.matches("[1-9]\\d*", args[argIter + 1])){
+                            Driver.numThreads = Integer.parseInt(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-nt must be followed by a positive integer for the number of threads\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // random seed
+                    case "-sd":
+                        if(argIter + 1 < args.length && Pattern.matches("-?\\d+", args[argIter + 1])){
+                            Driver.seed = Long.parseLong(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-sd must be followed by an integer for the random seed\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // seeding method
+                    case "-se":
+                        if(argIter + 1 < args.length && Seeding.isMethod(args[argIter + 1])){
+                            Driver.seeding = args[++argIter];
+                        }
+                        else{
+                            System.out.println("-se must be followed by random, kmpp, or kmll for the seeding method\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // off-heap data set
+                    case "-oh":
+                        Driver.offHeap = true;
+                        break;
+                    // chunk size
+                    case "-cs":
+                        if(argIter + 1 < args.length && Pattern.matches("[1-9]\\d*", args[argIter + 1])){
+                            Driver.chunkSize = Integer.parseInt(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-cs must be followed by a positive integer for the number of rows per chunk\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // mini-batch size
+                    case "-bs":
+                        if(argIter + 1 < args.length && Pattern.matches("[1-9]\\d*", args[argIter + 1])){
+                            Driver.batchSize = Integer.parseInt(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-bs must be followed by a positive integer for the mini-batch KMeans batch size\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // fitness sample size
+                    case "-fs":
+                        if(argIter + 1 < args.length && Pattern.matches("\\d+", args[argIter + 1])){
+                            Driver.sampleSize = Integer.parseInt(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-fs must be followed by a positive integer for the ACO and PSO fitness sample size\n");
+                            System.exit(0);
+                        }
+                        break;
                     // num Ants
                     case "-na":
                         if(argIter + 1 < args.length && Pattern.matches("\\d+", args[argIter + 1])){
@@ -169,6 +318,34 @@ public class Driver {
                             System.exit(0);
                         }
                         break;
+                    // auto theta
+                    case "-at":
+                        Driver.autoTheta = true;
+                        break;
+                    // most stable HDBSCAN clusters
+                    case "-ms":
+                        Driver.mostStable = true;
+                        break;
+                    // spatial index
+                    case "-si":
+                        if(argIter + 1 < args.length && SpatialIndex.isType(args[argIter + 1])){
+                            Driver.spatialIndex = args[++argIter];
+                        }
+                        else{
+                            System.out.println("-si must be followed by auto, grid, kdtree, or linear for the DB-Scan spatial index\n");
+                            System.exit(0);
+                        }
+                        break;
+                    // neighbour cache size
+                    case "-nc":
+                        if(argIter + 1 < args.length && Pattern.matches("\\d+", args[argIter + 1])){
+                            Driver.neighbourCacheMB = Integer.parseInt(args[++argIter]);
+                        }
+                        else{
+                            System.out.println("-nc must be followed by a positive integer for the DB-Scan neighbour cache size in MB\n");
+                            System.exit(0);
+                        }
+                        break;
                     // num hidden nodes
                     case "-hn":
                         if(argIter + 1 < args.length && Pattern.matches("\\d+", args[argIter + 1])){
@@ -215,19 +392,51 @@ public class Driver {
             case "dbs":
                 Driver.clusteringAlgorithm = new DBScan();
                 break;
+            case "hdbs":
+                Driver.clusteringAlgorithm = new HDBScan();
+                break;
+            case "hkm":
+                Driver.clusteringAlgorithm = new HamerlyKMeans();
+                break;
             case "km":
                 Driver.clusteringAlgorithm = new KMeans();
                 break;
+            case "mbkm":
+                Driver.clusteringAlgorithm = new MiniBatchKMeans();
+                break;
             case "nn":
                 Driver.clusteringAlgorithm = new BackpropNN();
                 break;
+            case "pdbs":
+                Driver.clusteringAlgorithm = new ParallelDBScan();
+                break;
             case "pso":
                 Driver.clusteringAlgorithm = new PSO();
                 break;
         }
 
+        // stream the data set from disk in chunks, only plain KMeans supports this, HamerlyKMeans keeps per-point bounds in memory
+        int numClusters = Integer.parseInt(args[1]);
+        if(Driver.chunkSize > 0){
+            if(Driver.clusteringAlgorithm == null || Driver.clusteringAlgorithm.getClass() != KMeans.class || !Files.isRegularFile(Paths.get(args[2]))){
+                System.out.println("-cs requires the km algorithm and the path of a CSV or .bin file\n");
+                System.exit(0);
+            }
+            ChunkedDataset source = new ChunkedDataset(Paths.get(args[2]), Driver.chunkSize);
+            double startMilli = System.currentTimeMillis();
+            int[] clusters = ((KMeans) Driver.clusteringAlgorithm).cluster(source, numClusters);
+            double timeMilli = System.currentTimeMillis() - startMilli;
+
+            double evaluation = Driver.evaluateClusters(source, clusters, numClusters);
+            System.out.println("\nFinal Clustering Algorithm Performance: " + evaluation);
+            System.out.println("Time Taken (ms): " + timeMilli);
+            Driver.printIterations();
+            return;
+        }
+
         // set the data set to cluster
-        Double[][] dataset = null;
+        Dataset dataset = null;
+        double loadStartMilli = System.currentTimeMillis();
         switch(args[2]){
             case "haberman":
                 dataset = Data.getHaberman();
@@ -244,10 +453,22 @@ public class Driver {
             case "wine":
                 dataset = Data.getWine();
                 break;
+            default:
+                try{
+                    dataset = Data.getDataset(Paths.get(args[2]));
+                }
+                catch(IOException e){
+                    System.out.println("Could not load " + args[2] + ": " + e.getMessage());
+                    System.exit(0);
+                }
+        }
+        System.out.println("Load Time (ms): " + (System.currentTimeMillis() - loadStartMilli));
+        if(Driver.offHeap && !dataset.isDirect()){
+            dataset = dataset.toDirect();
         }
 
         // get the clusters
-        int numClusters = Integer.parseInt(args[1]);
+        System.out.println("Seed: " + Driver.seed);
         double startMilli = System.currentTimeMillis();
         int[] clusters = Driver.clusteringAlgorithm.cluster(dataset, numClusters);
         double timeMilli = System.currentTimeMillis() - startMilli;
@@ -255,7 +476,18 @@ public class Driver {
         // evaluate clusters and print result
         double evaluation = Driver.evaluateClusters(dataset, clusters, numClusters);
         System.out.println("\nFinal Clustering Algorithm Performance: " + evaluation);
-        System.out.println("Time Taken (ms): " + timeMilli + "\n");
+        System.out.println("Time Taken (ms): " + timeMilli);
+        Driver.printIterations();
+    }
+
+    /**
+     * Prints how many iterations the clustering algorithm ran and why it stopped, if it iterates
+     */
+    private static void printIterations(){
+        if(Driver.clusteringAlgorithm.getStopReason() != null){
+            System.out.println("Iterations: " + Driver.clusteringAlgorithm.getIterations() + " (" + Driver.clusteringAlgorithm.getStopReason() + ")");
+        }
+        System.out.println();
     }
 
     /**
@@ -267,7 +499,7 @@ public class Driver {
         if(args.length == 0){
             return false;
         }
-        if(!args[0].equals("aco") && !args[0].equals("dbs") && !args[0].equals("km") && !args[0].equals("nn") && !args[0].equals("pso")){
+        if(!args[0].equals("aco") && !args[0].equals("dbs") && !args[0].equals("hdbs") && !args[0].equals("hkm") && !args[0].equals("km") && !args[0].equals("mbkm") && !args[0].equals("nn") && !args[0].equals("pdbs") && !args[0].equals("pso")){
             System.out.println("Invalid clustering algorithm.");
             return false;
         }
@@ -279,7 +511,8 @@ public class Driver {
             System.out.println("Invalid number of clusters.");
             return false;
         }
-        if(!args[2].equals("haberman") && !args[2].equals("htru2") && !args[2].equals("iris") && !args[2].equals("road") && !args[2].equals("wine")){
+        if(!args[2].equals("haberman") && !args[2].equals("htru2") && !args[2].equals("iris") && !args[2].equals("road") && !args[2].equals("wine")
+                && !Files.isRegularFile(Paths.get(args[2]))){
             System.out.println("Invalid data set.");
             return false;
         }
@@ -288,11 +521,21 @@ public class Driver {
 
     private static void displayHelpText(){
         System.out.println("Usage:\tjava -jar Clustering.jar [algorithm] [num-clusters] [data-set] [optional-parameters]");
-        System.out.println("[algorithm]:\taco, dbs, km, nn, pso");
+        System.out.println("[algorithm]:\taco, dbs, hdbs, hkm, km, mbkm, nn, pdbs, pso");
         System.out.println("[num-clusters]:\tan integer greater than 1");
-        System.out.println("[data-set]:\thaberman, htru2, iris, road, wine");
+        System.out.println("[data-set]:\thaberman, htru2, iris, road, wine, or the path of a CSV or .bin file");
         System.out.println("OPTIONAL PARAMETERS:");
-        System.out.println("\t[-mi maxIter]          sets the maximum number of iterations for ACO, PSO, and KMeans");
+        System.out.println("\t[-mi maxIter]          sets the maximum number of iterations for ACO, PSO, KMeans, and mini-batch KMeans");
+        System.out.println("\t[-to tolerance]        stops KMeans and mini-batch KMeans once no centroid moves further than this, negative disables (default 0.0)");
+        System.out.println("\t[-sl on|off]           stops KMeans once an iteration changes no labels (default on)");
+        System.out.println("\t[-pa patience]         stops ACO, PSO, and mini-batch KMeans after this many iterations without improvement, 0 disables (default 0)");
+        System.out.println("\t[-nt numThreads]       sets the number of threads for KMeans, seeding, ACO, PSO, parallel DB-Scan, and HDBSCAN (default: all cores)");
+        System.out.println("\t[-sd seed]             sets the random seed for KMeans seeding, mini-batch KMeans, ACO, and PSO");
+        System.out.println("\t[-se seeding]          sets how KMeans, mini-batch KMeans, and PSO pick initial centroids: random, kmpp, or kmll (default kmpp)");
+        System.out.println("\t[-oh]                  stores the data set off-heap");
+        System.out.println("\t[-cs chunkSize]        streams a data set file from disk in chunks of this many rows (km only)");
+        System.out.println("\t[-bs batchSize]        sets the number of points sampled per iteration for mini-batch KMeans");
+        System.out.println("\t[-fs sampleSize]       evaluates ACO and PSO candidates on a growing stratified sample of rows (default 0: every row)");
         System.out.println("\t[-na numAnts]          sets the number of ants for ACO");
         System.out.println("\t[-ne numEliteAnts]     sets the number of elitist ants for ACO");
         System.out.println("\t[-pe probExplot]       sets the probability of exploitation for ACO");
@@ -302,7 +545,11 @@ public class Driver {
         System.out.println("\t[-in inertia]          sets the inertia for PSO");
         System.out.println("\t[-pm phiMax]           sets the maximum phi value for PSO");
         System.out.println("\t[-th theta]            sets the theta value for DB-Scan");
+        System.out.println("\t[-at]                  estimates the DB-Scan theta from a sampled k-distance curve instead");
+        System.out.println("\t[-ms]                  extracts the most stable HDBSCAN clusters instead of the clusters at theta");
         System.out.println("\t[-mp minPoints]        sets the minimum number of points for DB-Scan");
+        System.out.println("\t[-si spatialIndex]     sets the DB-Scan spatial index: auto, grid, kdtree, or linear (default auto)");
+        System.out.println("\t[-nc cacheMB]          caps the DB-Scan neighbour lists and HDBSCAN candidate edges at this many MB, 0 disables them (default 256)");
         System.out.println("\t[-hn numHiddenNodes]   sets the number of hidden nodes for Neural Network");
         System.out.println("\t[-lr learningRate]     sets the learning rate for Backprop");
         System.out.println("\t[-mo momentum]         sets the momentum for Backprop");
@@ -316,19 +563,19 @@ public class Driver {
      * @param numClusters the number of clusters
      * @return an objective value of clustering performance
      */
-    public static double evaluateClusters(Double[][] data, int[] clusters, int numClusters){
+    public static double evaluateClusters(Dataset data, int[] clusters, int numClusters){
 
         // compute cluster centers
-        double[][] centers = new double[numClusters][data[0].length];
+        double[][] centers = new double[numClusters][data.getNumAttrs()];
         for(int clusterIter = 0; clusterIter < numClusters; clusterIter++){
             int numInCluster = 0;
-            for(int dataIter = 0; dataIter < data.length; dataIter++){
+            for(int dataIter = 0; dataIter < data.getNumRows(); dataIter++){
 
                 // if the data point is in this cluster, sum to center
                 if(clusters[dataIter] == clusterIter){
                     numInCluster++;
-                    for(int attrIter = 0; attrIter < data[dataIter].length; attrIter++){
-                        centers[clusterIter][attrIter] += data[dataIter][attrIter];
+                    for(int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++){
+                        centers[clusterIter][attrIter] += data.get(dataIter, attrIter);
                     }
                 }
             }
@@ -341,18 +588,64 @@ public class Driver {
 
         //compute objective function
         double objective = 0;
-        for(int dataIter = 0; dataIter < data.length; dataIter++){
+        for(int dataIter = 0; dataIter < data.getNumRows(); dataIter++){
             for(int clusterIter = 0; clusterIter < numClusters; clusterIter++){
                 if(clusters[dataIter] == clusterIter){
-                    double innerSum = 0;
-                    for(int attrIter = 0; attrIter < data[dataIter].length; attrIter++){
-                        innerSum += Math.pow(data[dataIter][attrIter] - centers[clusterIter][attrIter], 2);
-                    }
-                    objective += Math.sqrt(innerSum);
+                    objective += Math.sqrt(data.distanceSquared(dataIter, centers[clusterIter]));
                     break;
                 }
             }
         }
         return objective;
     }
+
+    /**
+     * Evaluates a clustering of a data set that is read from disk one chunk at a time,
+     * gives the same value as evaluateClusters on the whole data set
+     * @param source the data set that was clustered
+     * @param clusters the clustering given, in file order
+     * @param numClusters the number of clusters
+     * @return an objective value of clustering performance
+     */
+    public static double evaluateClusters(ChunkedDataset source, int[] clusters, int numClusters){
+
+        // compute cluster centers in one pass
+        double[][] centers = null;
+        int[] numInCluster = new int[numClusters];
+        int dataOffset = 0;
+        for(Dataset chunk : source){
+            if(centers == null){
+                centers = new double[numClusters][chunk.getNumAttrs()];
+            }
+            for(int dataIter = 0; dataIter < chunk.getNumRows(); dataIter++){
+                int cluster = clusters[dataOffset + dataIter];
+                numInCluster[cluster]++;
+                for(int attrIter = 0; attrIter < chunk.getNumAttrs(); attrIter++){
+                    centers[cluster][attrIter] += chunk.get(dataIter, attrIter);
+                }
+            }
+            dataOffset += chunk.getNumRows();
+        }
+        if(centers == null){
+            return 0;
+        }
+        for(int clusterIter = 0; clusterIter < numClusters; clusterIter++){
+            for(int clusterAttrIter = 0; clusterAttrIter < centers[clusterIter].length; clusterAttrIter++){
+                if(numInCluster[clusterIter] > 0){
+                    centers[clusterIter][clusterAttrIter] /= numInCluster[clusterIter];
+                }
+            }
+        }
+
+        //compute objective function in a second pass
+        double objective = 0;
+        dataOffset = 0;
+        for(Dataset chunk : source){
+            for(int dataIter = 0; dataIter < chunk.getNumRows(); dataIter++){
+                objective += Math.sqrt(chunk.distanceSquared(dataIter, centers[clusters[dataOffset + dataIter]]));
+            }
+            dataOffset += chunk.getNumRows();
+        }
+        return objective;
+    }
 }
@@ -0,0 +1,84 @@
+import java.util.Random;
+
+/**
+ * A stratified random sample of the rows of a data set, used to estimate the objective of a candidate
+ * solution without visiting every row
+ * The rows are split into as many equal strata as there are samples and one row is drawn from each, so
+ * every part of the data set is covered; an estimate sums over the sample and scales by numRows / size
+ * The sample stays fixed until it grows, so estimates within a sample are comparable; it doubles every
+ * time grow() is called until it covers every row, after which estimates are exact
+ */
+public class FitnessSample {
+
+    /**
+     * The number of rows in the data set
+     */
+    private final int numRows;
+
+    /**
+     * Draws the rows
+     */
+    private final Random random;
+
+    /**
+     * The sampled rows in ascending order
+     */
+    private int[] rows;
+
+    /**
+     * Constructor
+     * @param numRows the number of rows in the data set
+     * @param size the number of sampled rows, 0 or at least numRows samples every row
+     * @param random draws the rows
+     */
+    public FitnessSample(int numRows, int size, Random random){
+        this.numRows = numRows;
+        this.random = random;
+        this.draw(size <= 0 ? numRows : Math.min(size, numRows));
+    }
+
+    /**
+     * draws one row from each of size equal strata
+     */
+    private void draw(int size){
+        this.rows = new int[size];
+        for (int sampleIter = 0; sampleIter < size; sampleIter++) {
+            int start = (int) ((long) this.numRows * sampleIter / size);
+            int end = (int) ((long) this.numRows * (sampleIter + 1) / size);
+            this.rows[sampleIter] = size == this.numRows ? sampleIter : start + this.random.nextInt(end - start);
+        }
+    }
+
+    /**
+     * Doubles the sample and draws it again, up to every row
+     */
+    public void grow(){
+        if(!this.isFull()){
+            this.draw((int) Math.min(this.numRows, 2L * this.rows.length));
+        }
+    }
+
+    /**
+     * Gets whether the sample holds every row, so estimates are exact
+     * @return true if every row is sampled
+     */
+    public boolean isFull(){
+        return this.rows.length == this.numRows;
+    }
+
+    /**
+     * Gets the sampled rows
+     * @return the sampled rows in ascending order, not a copy
+     */
+    public int[] getRows(){
+        return this.rows;
+    }
+
+    /**
+     * Gets the factor turning a sum over the sample into an estimate of the sum over every row
+     * @return numRows / size
+     */
+    public double getScale(){
+        return (double) this.numRows / this.rows.length;
+    }
+}
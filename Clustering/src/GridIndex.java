@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * A spatial index that buckets rows into a uniform grid of cubes one radius wide
+ * Every neighbour of a row lies in the row's cell or one of the cells next to it, so a query
+ * only scans 3^numAttrs cells; only occupied cells are stored, found through an open addressing hash table
+ * Queries reuse scratch arrays kept per thread, so a visitor must not query the same index while it is visiting
+ */
+public class GridIndex implements SpatialIndex {
+
+    /**
+     * Cells are made this much wider than the radius, so rounding in the cell coordinates
+     * can never put two neighbours more than one cell apart
+     */
+    private static final double CELL_MARGIN = 1 + 1e-9;
+
+    /**
+     * The indexed data set
+     */
+    private final Dataset data;
+
+    /**
+     * The squared query radius
+     */
+    private final double radiusSquared;
+
+    /**
+     * The width of a cell
+     */
+    private final double cellSize;
+
+    /**
+     * [c * numAttrs + a] holds coordinate a of cell c
+     */
+    private final long[] cellCoords;
+
+    /**
+     * The rows of cell c are cellRows[cellStarts[c]] up to cellRows[cellStarts[c + 1]]
+     */
+    private final int[] cellStarts;
+    private final int[] cellRows;
+
+    /**
+     * Hash table from cell coordinates to cell index, -1 marks an empty slot
+     */
+    private final int[] table;
+
+    /**
+     * The scratch arrays of a query, one set per querying thread
+     */
+    private final ThreadLocal<Scratch> scratch;
+
+    /**
+     * Constructor, buckets every row
+     * @param data the data set
+     * @param radius the query radius, must be positive
+     */
+    public GridIndex(Dataset data, double radius){
+        if(!(radius > 0)) throw new IllegalArgumentException("A grid needs a positive radius");
+        this.data = data;
+        this.radiusSquared = radius * radius;
+        this.cellSize = radius * CELL_MARGIN;
+        int numAttrs = data.getNumAttrs();
+        int numRows = data.getNumRows();
+        this.scratch = ThreadLocal.withInitial(() -> new Scratch(numAttrs));
+
+        //find the cell of every row, numbering cells in order of first appearance
+        this.table = new int[Integer.highestOneBit(Math.max(1, numRows) * 2) * 2];
+        Arrays.fill(this.table, -1);
+        long[] coords = new long[numAttrs];
+        long[] cellCoords = new long[Math.max(1, numRows) * numAttrs];
+        int[] rowCells = new int[numRows];
+        int numCells = 0;
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            for (int attrIter = 0; attrIter < numAttrs; attrIter++) {
+                coords[attrIter] = this.toCell(data.get(dataIter, attrIter));
+            }
+            int slot = this.findSlot(coords, cellCoords);
+            if (this.table[slot] == -1) {
+                this.table[slot] = numCells;
+                System.arraycopy(coords, 0, cellCoords, numCells * numAttrs, numAttrs);
+                numCells++;
+            }
+            rowCells[dataIter] = this.table[slot];
+        }
+        this.cellCoords = Arrays.copyOf(cellCoords, numCells * numAttrs);
+
+        //sort the rows by cell with a counting sort
+        this.cellStarts = new int[numCells + 1];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            this.cellStarts[rowCells[dataIter] + 1]++;
+        }
+        for (int cellIter = 0; cellIter < numCells; cellIter++) {
+            this.cellStarts[cellIter + 1] += this.cellStarts[cellIter];
+        }
+        int[] next = Arrays.copyOf(this.cellStarts, numCells);
+        this.cellRows = new int[numRows];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            this.cellRows[next[rowCells[dataIter]]++] = dataIter;
+        }
+    }
+
+    @Override
+    public int forEachNeighbour(int row, Visitor visitor){
+        int numAttrs = this.data.getNumAttrs();
+        Scratch scratch = this.scratch.get();
+        long[] center = scratch.center;
+        long[] coords = scratch.coords;
+        int[] offsets = scratch.offsets;
+        for (int attrIter = 0; attrIter < numAttrs; attrIter++) {
+            center[attrIter] = this.toCell(this.data.get(row, attrIter));
+        }
+        //step through every combination of -1, 0, +1 offsets like an odometer
+        Arrays.fill(offsets, -1);
+        int visited = 0;
+        while (true) {
+            for (int attrIter = 0; attrIter < numAttrs; attrIter++) {
+                coords[attrIter] = center[attrIter] + offsets[attrIter];
+            }
+            int cell = this.table[this.findSlot(coords, this.cellCoords)];
+            if (cell != -1) {
+                for (int rowIter = this.cellStarts[cell]; rowIter < this.cellStarts[cell + 1]; rowIter++) {
+                    int neighbour = this.cellRows[rowIter];
+                    if (this.data.distanceSquared(row, neighbour) <= this.radiusSquared) {
+                        visited++;
+                        if (!visitor.visit(neighbour)) return visited;
+                    }
+                }
+            }
+
+            int attrIter = 0;
+            while (attrIter < numAttrs && offsets[attrIter] == 1) {
+                offsets[attrIter] = -1;
+                attrIter++;
+            }
+            if (attrIter == numAttrs) return visited;
+            offsets[attrIter]++;
+        }
+    }
+
+    /**
+     * Gets the number of occupied cells
+     * @return the number of occupied cells
+     */
+    public int getNumCells(){
+        return this.cellStarts.length - 1;
+    }
+
+    /**
+     * finds the coordinate of the cell holding a value
+     */
+    private long toCell(double value){
+        return (long) Math.floor(value / this.cellSize);
+    }
+
+    /**
+     * finds the hash table slot holding a cell, or the empty slot where it would go
+     */
+    private int findSlot(long[] coords, long[] cellCoords){
+        long hash = 0;
+        for (long coord: coords) {
+            hash = hash * 0x9E3779B97F4A7C15L + coord;
+        }
+        int mask = this.table.length - 1;
+        int slot = (int) (hash ^ (hash >>> 29) ^ (hash >>> 47)) & mask;
+        while (this.table[slot] != -1 && !this.sameCell(coords, cellCoords, this.table[slot])) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * checks if a cell index has the given coordinates
+     */
+    private boolean sameCell(long[] coords, long[] cellCoords, int cell){
+        int offset = cell * coords.length;
+        for (int attrIter = 0; attrIter < coords.length; attrIter++) {
+            if (cellCoords[offset + attrIter] != coords[attrIter]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The arrays a query works in
+     */
+    private static class Scratch {
+
+        /**
+         * The cell of the queried row, the cell being scanned, and the offset between them
+         */
+        private final long[] center;
+        private final long[] coords;
+        private final int[] offsets;
+
+        /**
+         * Constructor
+         * @param numAttrs the number of attributes
+         */
+        Scratch(int numAttrs){
+            this.center = new long[numAttrs];
+            this.coords = new long[numAttrs];
+            this.offsets = new int[numAttrs];
+        }
+    }
+}
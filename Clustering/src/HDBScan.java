@@ -0,0 +1,683 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hierarchical density based clustering (HDBSCAN)
+ * The core distance of a point is the distance to its (minPts - 1)-th nearest other point, so a point is a DB-Scan
+ * core point at theta exactly when its core distance is at most theta, and the mutual reachability distance of two
+ * points is the largest of their distance and both core distances
+ * A minimum spanning tree of the mutual reachability distances is built once; cutting its edges longer than theta
+ * leaves the same clusters of core points as DB-Scan at theta, so any theta can be extracted without computing
+ * distances again; alternatively the most stable clusters over all thetas are extracted
+ * The core distances come from k-nearest neighbour queries of a k-d tree. The tree's edges up to the knee of the
+ * core distances are the minimum spanning forest of the pairs the spatial index finds within the knee, joined by
+ * Kruskal's algorithm; Prim's algorithm then joins the trees of that forest, one parallel pass per tree
+ * As in DB-Scan, the points outside every cluster are finally assigned to the cluster with the closest center
+ */
+public class HDBScan extends DBScan{
+
+    /**
+     * Number of points handled by one fork/join task
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Number of points outside the tree handled by one fork/join task while joining the forest, smaller than
+     * BLOCK_SIZE as each of them is compared with every point of the tree being added
+     */
+    private static final int JOIN_BLOCK_SIZE = 256;
+
+    /**
+     * Bytes per candidate edge of the forest: the packed ends, the weight, the sort key and the sorted order
+     */
+    private static final int EDGE_BYTES = Long.BYTES + Double.BYTES + Long.BYTES + Integer.BYTES;
+
+    /**
+     * Number of times the forest radius is halved when the candidate edges do not fit in the memory bound
+     */
+    private static final int FOREST_TRIES = 4;
+
+    /**
+     * Number of thetas printed once the tree is built
+     */
+    private static final int SWEEP_SIZE = 10;
+
+    /**
+     * Number of threads
+     */
+    private int numThreads = Driver.numThreads;
+
+    /**
+     * Extract the most stable clusters rather than the clusters at theta
+     */
+    private boolean mostStable = Driver.mostStable;
+
+    /**
+     * The data set and minPts the tree was built for
+     */
+    private Dataset treeData;
+    private int treeMinPts;
+
+    /**
+     * [i] holds the squared core distance of point i
+     */
+    private double[] coreDistances;
+
+    /**
+     * The knee of the sorted core distances, the radius of the forest and the auto theta
+     */
+    private ThetaEstimator coreKnee;
+
+    /**
+     * The edges of the minimum spanning tree sorted by weight: edge i joins edgeFrom[i] and edgeTo[i]
+     * with squared mutual reachability distance edgeWeights[i]
+     */
+    private int[] edgeFrom;
+    private int[] edgeTo;
+    private double[] edgeWeights;
+
+    /**
+     * HDBSCAN clustering, the tree is only built again for a different data set or minPts
+     * @param data dataset to cluster
+     * @param numClusters not used
+     */
+    @Override
+    public int[] cluster(Dataset data, int numClusters){
+        this.data = data;
+        if(this.treeData != data || this.treeMinPts != this.minPts){
+            buildTree(data);
+            printSweep(SWEEP_SIZE);
+        }
+        if(!this.mostStable){
+            estimateTheta(data, this.numThreads);
+        }
+        int[] clusters = this.mostStable ? getStableClusters() : getClustersAt(this.theta);
+
+        //add non core points to cluster with closest center
+        this.dbPoints = new DB_point[data.getNumRows()];
+        int clusterNum = 0;
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            this.dbPoints[dataIter] = new DB_point(dataIter, clusters[dataIter] == -1 ? 0 : 2);
+            this.dbPoints[dataIter].setCluster(clusters[dataIter]);
+            clusterNum = Math.max(clusterNum, clusters[dataIter] + 1);
+        }
+        assignToNearestCenter(0, data.getNumRows(), getCenters(clusterNum), clusterNum);
+        return getLabels();
+    }
+
+    /**
+     * Replaces theta with the knee of the core distances of every point when auto theta is on, so no sample
+     * of the data has to be scanned again
+     * @param data dataset to cluster, its tree must be built
+     * @param numThreads not used, the core distances are already known
+     */
+    @Override
+    protected void estimateTheta(Dataset data, int numThreads) {
+        if(!this.autoTheta || data.getNumRows() < 2){
+            return;
+        }
+        this.theta = this.coreKnee.getTheta();
+        System.out.printf("Estimated theta: %.6f from the core distances of all %d rows, %.0f%% of them core (reuse with -th %.6f)%n",
+                this.theta, this.coreKnee.getNumSamples(), 100 * this.coreKnee.getCoreFraction(), this.theta);
+    }
+
+    /**
+     * Computes the core distances and the minimum spanning tree of the mutual reachability distances
+     * @param data dataset to cluster
+     */
+    public void buildTree(Dataset data) {
+        long startNanos = System.nanoTime();
+        int numRows = data.getNumRows();
+        int numBlocks = BlockAction.getNumBlocks(numRows, BLOCK_SIZE);
+        this.coreDistances = new double[numRows];
+        this.edgeFrom = new int[Math.max(0, numRows - 1)];
+        this.edgeTo = new int[Math.max(0, numRows - 1)];
+        this.edgeWeights = new double[Math.max(0, numRows - 1)];
+        //[i] holds the parent of point i in the union-find forest of the trees joined so far
+        int[] parents = new int[numRows];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            parents[dataIter] = dataIter;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try{
+            //core distances, a core point has minPts points within theta counting itself; with minPts 1 every point
+            //is a core, the distances to the nearest other points then only give the knee as in DBScan
+            if(numRows >= 2){
+                int numNeighbours = Math.max(1, Math.min(this.minPts - 1, numRows - 1));
+                KDTree tree = new KDTree(data, 0);
+                pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                    double[] nearest = new double[numNeighbours];
+                    for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(numRows, (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                        this.coreDistances[dataIter] = tree.getKDistanceSquared(dataIter, nearest);
+                    }
+                }));
+            }
+            this.coreKnee = new ThetaEstimator(this.coreDistances);
+            if(this.minPts <= 1){
+                Arrays.fill(this.coreDistances, 0);
+            }
+
+            int numEdges = buildForest(data, pool, parents);
+            joinForest(data, pool, parents, numEdges);
+        }
+        finally{
+            pool.shutdown();
+        }
+        sortEdges();
+        this.treeData = data;
+        this.treeMinPts = this.minPts;
+        System.out.printf("Built mutual reachability tree of %d points in %.1f ms%n", numRows, (System.nanoTime() - startNanos) / 1e6);
+    }
+
+    /**
+     * Builds the minimum spanning forest of the edges no longer than a radius with Kruskal's algorithm, which are
+     * exactly the tree's edges up to that radius; the radius starts at the knee of the core distances and halves
+     * while the candidate edges do not fit in the memory bound
+     * @param data dataset to cluster
+     * @param pool runs the blocks
+     * @param parents the union-find forest, joined along every edge found
+     * @return the number of edges found, stored in order of weight from edge 0
+     */
+    private int buildForest(Dataset data, ForkJoinPool pool, int[] parents) {
+        double radius = data.getNumRows() < 2 ? 0 : this.coreKnee.getTheta();
+        long[] pairs = null;
+        for (int tryIter = 0; tryIter <= FOREST_TRIES && radius > 0 && this.maxCacheBytes >= EDGE_BYTES; tryIter++) {
+            pairs = getCandidateEdges(data, pool, radius);
+            if(pairs != null){
+                break;
+            }
+            System.out.printf("Candidate edges within %.6f exceed %.1f MB, halving the radius%n", radius, this.maxCacheBytes / 1048576.0);
+            radius /= 2;
+        }
+        if(pairs == null){
+            return 0;
+        }
+
+        //weigh every candidate by its mutual reachability distance, then join them from the lightest
+        long[] candidates = pairs;
+        double[] weights = new double[candidates.length];
+        pool.invoke(new BlockAction(0, BlockAction.getNumBlocks(candidates.length, BLOCK_SIZE), (blockIter) -> {
+            for (int edgeIter = blockIter * BLOCK_SIZE; edgeIter < Math.min(candidates.length, (blockIter + 1) * BLOCK_SIZE); edgeIter++) {
+                int from = (int) (candidates[edgeIter] >>> 32);
+                int to = (int) candidates[edgeIter];
+                weights[edgeIter] = Math.max(data.distanceSquared(from, to), Math.max(this.coreDistances[from], this.coreDistances[to]));
+            }
+        }));
+        int numEdges = 0;
+        for (int edge: sortByWeight(weights, weights.length)) {
+            int from = (int) (candidates[edge] >>> 32);
+            int to = (int) candidates[edge];
+            int fromRoot = find(parents, from);
+            int toRoot = find(parents, to);
+            if(fromRoot != toRoot){
+                parents[Math.max(fromRoot, toRoot)] = Math.min(fromRoot, toRoot);
+                this.edgeFrom[numEdges] = from;
+                this.edgeTo[numEdges] = to;
+                this.edgeWeights[numEdges] = weights[edge];
+                numEdges++;
+            }
+        }
+        System.out.printf("Forest within %.6f: %d candidate edges, %d tree edges%n", radius, candidates.length, numEdges);
+        return numEdges;
+    }
+
+    /**
+     * Finds every pair of core points whose distance and core distances are all within a radius, so the pairs are
+     * exactly the edges of the mutual reachability graph up to the radius
+     * @param data dataset to cluster
+     * @param pool runs the blocks
+     * @param radius the radius
+     * @return every pair once, packed as (lower point << 32 | higher point), or null if they do not fit in the memory bound
+     */
+    private long[] getCandidateEdges(Dataset data, ForkJoinPool pool, double radius) {
+        int numRows = data.getNumRows();
+        double radiusSquared = radius * radius;
+        long maxEdges = Math.min(Integer.MAX_VALUE - 8, this.maxCacheBytes / EDGE_BYTES);
+        SpatialIndex index = SpatialIndex.create(data, radius, this.indexType);
+        int numBlocks = BlockAction.getNumBlocks(numRows, BLOCK_SIZE);
+        PairCollector[] collectors = new PairCollector[numBlocks];
+        //the shared total stops all blocks once the bound is passed
+        AtomicLong total = new AtomicLong();
+        pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+            PairCollector collector = new PairCollector(radiusSquared);
+            collectors[blockIter] = collector;
+            for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(numRows, (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                if(this.coreDistances[dataIter] <= radiusSquared){
+                    int size = collector.size;
+                    collector.row = dataIter;
+                    index.forEachNeighbour(dataIter, collector);
+                    if(total.addAndGet(collector.size - size) > maxEdges) return;
+                }
+            }
+        }));
+        if(total.get() > maxEdges){
+            return null;
+        }
+
+        //join the blocks in point order
+        long[] pairs = new long[(int) total.get()];
+        int numPairs = 0;
+        for (PairCollector collector: collectors) {
+            System.arraycopy(collector.pairs, 0, pairs, numPairs, collector.size);
+            numPairs += collector.size;
+        }
+        return pairs;
+    }
+
+    /**
+     * Joins the trees of the forest with Prim's algorithm over whole trees: each step compares every point outside
+     * the tree so far with the points of the tree added last in one parallel pass, then adds the tree of the closest
+     * point; ties go to the lower point so the tree is deterministic
+     * @param data dataset to cluster
+     * @param pool runs the blocks
+     * @param parents the union-find forest of the trees
+     * @param numEdges the number of edges already found
+     */
+    private void joinForest(Dataset data, ForkJoinPool pool, int[] parents, int numEdges) {
+        int numRows = data.getNumRows();
+        if(numEdges >= numRows - 1){
+            return;
+        }
+        //group the points by tree, the tree with root r holds members[memberStarts[r]] up to members[memberStarts[r + 1]]
+        int[] roots = new int[numRows];
+        int[] memberStarts = new int[numRows + 1];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            roots[dataIter] = find(parents, dataIter);
+            memberStarts[roots[dataIter] + 1]++;
+        }
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            memberStarts[dataIter + 1] += memberStarts[dataIter];
+        }
+        int[] next = Arrays.copyOf(memberStarts, numRows);
+        int[] members = new int[numRows];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            members[next[roots[dataIter]]++] = dataIter;
+        }
+
+        //[i] holds the smallest squared mutual reachability distance from point i to the tree so far, and its tree end
+        double[] minWeights = new double[numRows];
+        int[] minFrom = new int[numRows];
+        Arrays.fill(minWeights, Double.MAX_VALUE);
+        //the points outside the tree so far in ascending order
+        int added = roots[0];
+        int[] outside = new int[numRows];
+        int numOutside = 0;
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            if(roots[dataIter] != added){
+                outside[numOutside++] = dataIter;
+            }
+        }
+        int[] blockBest = new int[BlockAction.getNumBlocks(numOutside, JOIN_BLOCK_SIZE)];
+        while(numOutside > 0){
+            int tree = added;
+            int numPoints = numOutside;
+            int numBlocks = BlockAction.getNumBlocks(numPoints, JOIN_BLOCK_SIZE);
+            pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                int best = -1;
+                for (int outsideIter = blockIter * JOIN_BLOCK_SIZE; outsideIter < Math.min(numPoints, (blockIter + 1) * JOIN_BLOCK_SIZE); outsideIter++) {
+                    int point = outside[outsideIter];
+                    double core = this.coreDistances[point];
+                    //no weight from a point is below either core distance, so stop once none can be lower
+                    for (int memberIter = memberStarts[tree]; memberIter < memberStarts[tree + 1] && minWeights[point] > core; memberIter++) {
+                        int member = members[memberIter];
+                        if(this.coreDistances[member] >= minWeights[point]){
+                            continue;
+                        }
+                        double weight = Math.max(data.distanceSquared(member, point), Math.max(this.coreDistances[member], core));
+                        if(weight < minWeights[point]){
+                            minWeights[point] = weight;
+                            minFrom[point] = member;
+                        }
+                    }
+                    if(best == -1 || minWeights[point] < minWeights[best]){
+                        best = point;
+                    }
+                }
+                blockBest[blockIter] = best;
+            }));
+            int best = -1;
+            for (int blockIter = 0; blockIter < numBlocks; blockIter++) {
+                if(best == -1 || minWeights[blockBest[blockIter]] < minWeights[best]){
+                    best = blockBest[blockIter];
+                }
+            }
+            this.edgeFrom[numEdges] = minFrom[best];
+            this.edgeTo[numEdges] = best;
+            this.edgeWeights[numEdges] = minWeights[best];
+            numEdges++;
+
+            //drop the points of the tree just added
+            added = roots[best];
+            int kept = 0;
+            for (int outsideIter = 0; outsideIter < numOutside; outsideIter++) {
+                if(roots[outside[outsideIter]] != added){
+                    outside[kept++] = outside[outsideIter];
+                }
+            }
+            numOutside = kept;
+        }
+    }
+
+    /**
+     * sorts the edges of the tree by weight
+     */
+    private void sortEdges() {
+        int[] order = sortByWeight(this.edgeWeights, this.edgeWeights.length);
+        int[] from = new int[order.length];
+        int[] to = new int[order.length];
+        double[] weights = new double[order.length];
+        for (int edgeIter = 0; edgeIter < order.length; edgeIter++) {
+            from[edgeIter] = this.edgeFrom[order[edgeIter]];
+            to[edgeIter] = this.edgeTo[order[edgeIter]];
+            weights[edgeIter] = this.edgeWeights[order[edgeIter]];
+        }
+        this.edgeFrom = from;
+        this.edgeTo = to;
+        this.edgeWeights = weights;
+    }
+
+    /**
+     * orders edges by weight, ties by index, without boxing: a primitive sort of keys packing each weight rounded
+     * to a float above its index, then an insertion pass orders the few edges whose weights round to the same float;
+     * rounding never reverses two weights, so only those can be out of order
+     */
+    private static int[] sortByWeight(double[] weights, int numEdges) {
+        long[] keys = new long[numEdges];
+        for (int edgeIter = 0; edgeIter < numEdges; edgeIter++) {
+            keys[edgeIter] = (long) Float.floatToIntBits((float) weights[edgeIter]) << 32 | edgeIter;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[numEdges];
+        for (int edgeIter = 0; edgeIter < numEdges; edgeIter++) {
+            int edge = (int) keys[edgeIter];
+            int insertIter = edgeIter;
+            while (insertIter > 0 && weights[order[insertIter - 1]] > weights[edge]) {
+                order[insertIter] = order[insertIter - 1];
+                insertIter--;
+            }
+            order[insertIter] = edge;
+        }
+        return order;
+    }
+
+    /**
+     * Finds the DB-Scan clusters of the core points at a theta from the tree, numbered in order of their
+     * first point as DBScan numbers them
+     * @param theta distance threshold
+     * @return the cluster of every point, -1 for points that are not core points
+     */
+    public int[] getClustersAt(double theta) {
+        int numRows = this.coreDistances.length;
+        double thetaSquared = theta * theta;
+        //join the ends of every edge within theta, an edge is longer than theta whenever either end is not a core
+        int[] parents = new int[numRows];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            parents[dataIter] = dataIter;
+        }
+        for (int edgeIter = 0; edgeIter < this.edgeWeights.length && this.edgeWeights[edgeIter] <= thetaSquared; edgeIter++) {
+            int firstRoot = find(parents, this.edgeFrom[edgeIter]);
+            int secondRoot = find(parents, this.edgeTo[edgeIter]);
+            parents[Math.max(firstRoot, secondRoot)] = Math.min(firstRoot, secondRoot);
+        }
+
+        //every root is the smallest point of its set, so numbering roots in order numbers the clusters like DBScan
+        int[] clusters = new int[numRows];
+        int clusterNum = 0;
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            if(this.coreDistances[dataIter] > thetaSquared){
+                clusters[dataIter] = -1;
+            }
+            else{
+                int root = find(parents, dataIter);
+                clusters[dataIter] = root == dataIter ? clusterNum++ : clusters[root];
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Finds the most stable clusters over all thetas, with at least minPts points each
+     * Merging the tree edges from shortest to longest gives the cluster hierarchy; going back down from the root,
+     * a cluster only splits when both parts have minPts points, otherwise the smaller part falls out as noise.
+     * Edges of equal weight split a cluster all at once, so the result does not depend on which of the equally
+     * short edges the tree holds.
+     * The stability of a cluster sums, over its points, how far the density (1 / distance) rises between the
+     * cluster appearing and the point leaving it; a cluster is kept when it is more stable than the clusters
+     * kept below it
+     * @return the cluster of every point, -1 for noise, numbered in order of their first point
+     */
+    public int[] getStableClusters() {
+        int numRows = this.coreDistances.length;
+        int minSize = Math.max(2, this.minPts);
+        int numNodes = 2 * numRows - 1;
+        if(numRows < 2){
+            return new int[numRows];
+        }
+
+        //single linkage hierarchy, node numRows + i merges the sets joined by edge i
+        int[] children = new int[2 * (numRows - 1)];
+        int[] sizes = new int[numNodes];
+        int[] parents = new int[numRows];
+        int[] setNodes = new int[numRows];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            parents[dataIter] = dataIter;
+            setNodes[dataIter] = dataIter;
+            sizes[dataIter] = 1;
+        }
+        for (int edgeIter = 0; edgeIter < numRows - 1; edgeIter++) {
+            int firstRoot = find(parents, this.edgeFrom[edgeIter]);
+            int secondRoot = find(parents, this.edgeTo[edgeIter]);
+            int node = numRows + edgeIter;
+            children[2 * edgeIter] = setNodes[firstRoot];
+            children[2 * edgeIter + 1] = setNodes[secondRoot];
+            sizes[node] = sizes[setNodes[firstRoot]] + sizes[setNodes[secondRoot]];
+            parents[secondRoot] = firstRoot;
+            setNodes[firstRoot] = node;
+        }
+
+        //walk down from the root, clusters are numbered as they appear so parents come before children
+        int[] clusterParents = new int[numRows];
+        double[] births = new double[numRows];
+        double[] stabilities = new double[numRows];
+        int[] pointClusters = new int[numRows];
+        int numClusters = 1;
+        clusterParents[0] = -1;
+        int[] nodeStack = new int[numNodes];
+        int[] clusterStack = new int[numNodes];
+        int stackSize = 0;
+        nodeStack[stackSize] = numNodes - 1;
+        clusterStack[stackSize++] = 0;
+        int[] fallStack = new int[numNodes];
+        int[] partStack = new int[numNodes];
+        int[] parts = new int[numNodes];
+        while(stackSize > 0){
+            int node = nodeStack[--stackSize];
+            int cluster = clusterStack[stackSize];
+            if(node < numRows){
+                //a lone point can only be reached as a whole cluster when minSize is 1, it leaves at infinite density
+                pointClusters[node] = cluster;
+                continue;
+            }
+            //the parts just below this level, looking through merges at the same weight
+            double weight = this.edgeWeights[node - numRows];
+            double lambda = toLambda(weight);
+            int numParts = 0;
+            int numBig = 0;
+            int partSize = 0;
+            partStack[partSize++] = node;
+            while(partSize > 0){
+                int part = partStack[--partSize];
+                if(part >= numRows && this.edgeWeights[part - numRows] == weight){
+                    partStack[partSize++] = children[2 * (part - numRows) + 1];
+                    partStack[partSize++] = children[2 * (part - numRows)];
+                }
+                else{
+                    parts[numParts++] = part;
+                    numBig += sizes[part] >= minSize ? 1 : 0;
+                }
+            }
+            if(numBig >= 2){
+                //a real split, the cluster ends and every big part starts a new one
+                stabilities[cluster] += sizes[node] * (lambda - births[cluster]);
+            }
+            //the small parts fall out of the cluster as noise, a lone big part carries on as the same cluster
+            for (int partIter = 0; partIter < numParts; partIter++) {
+                int part = parts[partIter];
+                if(sizes[part] >= minSize){
+                    if(numBig >= 2){
+                        clusterParents[numClusters] = cluster;
+                        births[numClusters] = lambda;
+                        nodeStack[stackSize] = part;
+                        clusterStack[stackSize++] = numClusters++;
+                    }
+                    else{
+                        nodeStack[stackSize] = part;
+                        clusterStack[stackSize++] = cluster;
+                    }
+                    continue;
+                }
+                if(numBig < 2){
+                    stabilities[cluster] += sizes[part] * (lambda - births[cluster]);
+                }
+                int fallSize = 0;
+                fallStack[fallSize++] = part;
+                while(fallSize > 0){
+                    int fallNode = fallStack[--fallSize];
+                    if(fallNode < numRows){
+                        pointClusters[fallNode] = cluster;
+                    }
+                    else{
+                        fallStack[fallSize++] = children[2 * (fallNode - numRows)];
+                        fallStack[fallSize++] = children[2 * (fallNode - numRows) + 1];
+                    }
+                }
+            }
+        }
+
+        //bottom up, keep a cluster if it beats the best total of the clusters below it; the root is only kept
+        //when it never splits
+        boolean[] selected = new boolean[numClusters];
+        double[] bestBelow = new double[numClusters];
+        for (int clusterIter = numClusters - 1; clusterIter > 0; clusterIter--) {
+            if(stabilities[clusterIter] >= bestBelow[clusterIter]){
+                selected[clusterIter] = true;
+                bestBelow[clusterIter] = stabilities[clusterIter];
+            }
+            bestBelow[clusterParents[clusterIter]] += bestBelow[clusterIter];
+        }
+        selected[0] = numClusters == 1;
+
+        //top down, a point belongs to the kept cluster it or one of its clusters' ancestors is in
+        int[] keptClusters = new int[numClusters];
+        for (int clusterIter = 0; clusterIter < numClusters; clusterIter++) {
+            int parentKept = clusterIter == 0 ? -1 : keptClusters[clusterParents[clusterIter]];
+            keptClusters[clusterIter] = parentKept != -1 ? parentKept : selected[clusterIter] ? clusterIter : -1;
+        }
+        int[] clusterNums = new int[numClusters];
+        Arrays.fill(clusterNums, -1);
+        int clusterNum = 0;
+        int[] clusters = new int[numRows];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            int kept = keptClusters[pointClusters[dataIter]];
+            if(kept != -1 && clusterNums[kept] == -1){
+                clusterNums[kept] = clusterNum++;
+            }
+            clusters[dataIter] = kept == -1 ? -1 : clusterNums[kept];
+        }
+        return clusters;
+    }
+
+    /**
+     * turns a squared mutual reachability distance into a density level
+     */
+    private static double toLambda(double distanceSquared) {
+        return distanceSquared > 0 ? 1 / Math.sqrt(distanceSquared) : Double.MAX_VALUE;
+    }
+
+    /**
+     * finds the root of a point in a union-find forest, halving the path on the way
+     */
+    private static int find(int[] parents, int point) {
+        while(parents[point] != point){
+            parents[point] = parents[parents[point]];
+            point = parents[point];
+        }
+        return point;
+    }
+
+    /**
+     * Prints the number of clusters and noise points at several thetas spread over the tree's edge weights,
+     * without computing any distances
+     * @param numThetas the number of thetas
+     */
+    public void printSweep(int numThetas) {
+        if(this.edgeWeights.length == 0){
+            return;
+        }
+        System.out.printf("%14s %10s %10s%n", "theta", "clusters", "noise");
+        for (int thetaIter = 1; thetaIter <= numThetas; thetaIter++) {
+            int edge = (int) ((long) (this.edgeWeights.length - 1) * thetaIter / numThetas);
+            double theta = Math.sqrt(this.edgeWeights[Math.max(0, edge)]);
+            int[] clusters = getClustersAt(theta);
+            int clusterNum = 0;
+            int noise = 0;
+            for (int cluster: clusters) {
+                clusterNum = Math.max(clusterNum, cluster + 1);
+                noise += cluster == -1 ? 1 : 0;
+            }
+            System.out.printf("%14.6f %10d %10d%n", theta, clusterNum, noise);
+        }
+    }
+
+    /**
+     * Sets whether the most stable clusters are extracted rather than the clusters at theta
+     * @param mostStable true to extract the most stable clusters
+     */
+    public void setMostStable(boolean mostStable){
+        this.mostStable = mostStable;
+    }
+
+    /**
+     * Sets the number of threads
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Collects the candidate edges from the core points of one block to the higher core points within the radius
+     */
+    private class PairCollector implements SpatialIndex.Visitor {
+
+        private final double radiusSquared;
+        private long[] pairs = new long[BLOCK_SIZE];
+        private int size;
+
+        /**
+         * The point being queried
+         */
+        private int row;
+
+        /**
+         * Constructor
+         * @param radiusSquared the squared radius, a neighbour with a larger core distance is not a candidate
+         */
+        PairCollector(double radiusSquared){
+            this.radiusSquared = radiusSquared;
+        }
+
+        @Override
+        public boolean visit(int neighbour){
+            if(neighbour > this.row && HDBScan.this.coreDistances[neighbour] <= this.radiusSquared){
+                if(this.size == this.pairs.length){
+                    this.pairs = Arrays.copyOf(this.pairs, 2 * this.size);
+                }
+                this.pairs[this.size++] = (long) this.row << 32 | neighbour;
+            }
+            return true;
+        }
+    }
+}
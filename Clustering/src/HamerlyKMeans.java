@@ -0,0 +1,260 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * K-Means clustering accelerated with Hamerly's triangle inequality bounds
+ * Every datapoint keeps an upper bound on the distance to its centroid and a lower bound on the distance
+ * to any other centroid; while the upper bound is below both the lower bound and half the distance from its
+ * centroid to the nearest other centroid the label cannot change, so no distances need to be computed
+ * The labels and centroids are the same as KMeans for the same seed, only the work done differs
+ */
+public class HamerlyKMeans extends KMeans{
+
+    /**
+     * Number of rows bounded by one fork/join task
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Number of point-to-centroid and centroid-to-centroid distances computed by the last run
+     */
+    private long distanceEvaluations;
+
+    /**
+     * Number of point-to-centroid distances plain KMeans would have computed in the last run
+     */
+    private long lloydEvaluations;
+
+    /**
+     * Clusters data via the K-means Algorithm, skipping the distances the bounds prove unnecessary
+     */
+    @Override
+    public int[] cluster(Dataset data, int numClusters){
+        int[] labels = new int[data.getNumRows()];
+        Arrays.fill(labels, -1);
+        //[i] is an upper bound on the distance from row i to its centroid
+        double[] upperBounds = new double[data.getNumRows()];
+        //[i] is a lower bound on the distance from row i to every other centroid
+        double[] lowerBounds = new double[data.getNumRows()];
+        double[][] centroids = initCentroids(data, numClusters);
+        this.distanceEvaluations = 0;
+        this.lloydEvaluations = 0;
+
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try{
+            this.convergence.start();
+            boolean first = true;
+            while(!this.convergence.isDone()){
+                //half the distance from each centroid to its nearest other centroid
+                double[] halfGaps = this.getHalfGaps(centroids);
+                //there are no bounds yet on the first iteration, and an empty first centroid makes
+                //KMeans.labelPoint put every point in it, which no bound can predict
+                boolean full = first || Double.isNaN(centroids[0][0]);
+                long[] counts = pool.invoke(new BoundsTask(data, centroids, halfGaps, labels, upperBounds, lowerBounds, full, 0, data.getNumRows()));
+                this.convergence.recordLabelChanges((int) counts[0]);
+                this.distanceEvaluations += counts[1];
+                this.lloydEvaluations += (long) data.getNumRows() * numClusters;
+
+                double[][] newCentroids = getCentroids(pool, data, labels, numClusters);
+                this.convergence.recordCentroids(centroids, newCentroids);
+                updateBounds(centroids, newCentroids, labels, upperBounds, lowerBounds);
+                centroids = newCentroids;
+                first = false;
+                this.convergence.endIteration();
+            }
+        }
+        finally{
+            pool.shutdown();
+        }
+        this.recordConvergence(this.convergence);
+        System.out.printf("Distance evaluations: %d of %d (%.1f%% skipped)%n", this.distanceEvaluations, this.lloydEvaluations,
+                100.0 * this.getSkippedDistances() / Math.max(1, this.lloydEvaluations));
+        return labels;
+    }
+
+    /**
+     * finds half the distance from each centroid to its nearest other centroid, NaN for empty centroids
+     */
+    private double[] getHalfGaps(double[][] centroids) {
+        double[] halfGaps = new double[centroids.length];
+        Arrays.fill(halfGaps, Double.MAX_VALUE);
+        for (int centIter = 0; centIter < centroids.length; centIter++) {
+            if (Double.isNaN(centroids[centIter][0])) {
+                halfGaps[centIter] = Double.NaN;
+                continue;
+            }
+            for (int otherIter = centIter + 1; otherIter < centroids.length; otherIter++) {
+                if (Double.isNaN(centroids[otherIter][0])) continue;
+                double halfGap = 0.5 * Math.sqrt(distanceSquared(centroids[centIter], centroids[otherIter]));
+                halfGaps[centIter] = Math.min(halfGaps[centIter], halfGap);
+                halfGaps[otherIter] = Math.min(halfGaps[otherIter], halfGap);
+                this.distanceEvaluations++;
+            }
+        }
+        return halfGaps;
+    }
+
+    /**
+     * loosens the bounds of every datapoint by how far the centroids moved
+     */
+    private static void updateBounds(double[][] oldCentroids, double[][] newCentroids, int[] labels, double[] upperBounds, double[] lowerBounds) {
+        //the largest and second largest movement, so a point can skip the movement of its own centroid
+        double[] moves = new double[oldCentroids.length];
+        int maxIndex = 0;
+        double secondMax = 0;
+        for (int centIter = 0; centIter < oldCentroids.length; centIter++) {
+            double move = Math.sqrt(distanceSquared(oldCentroids[centIter], newCentroids[centIter]));
+            //an empty centroid is never the nearest, so its movement does not matter
+            moves[centIter] = Double.isNaN(move) ? 0 : move;
+            if (moves[centIter] > moves[maxIndex]) {
+                secondMax = moves[maxIndex];
+                maxIndex = centIter;
+            }
+            else if (centIter != maxIndex && moves[centIter] > secondMax) {
+                secondMax = moves[centIter];
+            }
+        }
+
+        for (int dataIter = 0; dataIter < labels.length; dataIter++) {
+            upperBounds[dataIter] += moves[labels[dataIter]];
+            lowerBounds[dataIter] -= labels[dataIter] == maxIndex ? secondMax : moves[maxIndex];
+        }
+    }
+
+    /**
+     * squared euclidean distance between two centroids
+     */
+    private static double distanceSquared(double[] first, double[] second) {
+        double sum = 0;
+        for (int dimIter = 0; dimIter < first.length; dimIter++) {
+            double diff = first[dimIter] - second[dimIter];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the number of distances computed by the last run, including the distances between centroids
+     * @return the number of distances computed
+     */
+    public long getDistanceEvaluations(){
+        return this.distanceEvaluations;
+    }
+
+    /**
+     * Gets the number of point-to-centroid distances the last run skipped compared to plain KMeans
+     * @return the number of distances skipped
+     */
+    public long getSkippedDistances(){
+        return this.lloydEvaluations - this.distanceEvaluations;
+    }
+
+    /**
+     * Labels a range of rows, only computing distances for the rows whose bounds cannot rule out a new label,
+     * returns the number of label changes and the number of distances computed
+     */
+    private static class BoundsTask extends RecursiveTask<long[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Dataset data;
+        private final double[][] centroids;
+        private final double[] halfGaps;
+        private final int[] labels;
+        private final double[] upperBounds;
+        private final double[] lowerBounds;
+        private final boolean full;
+        private final int start;
+        private final int end;
+
+        /**
+         * Constructor
+         * @param data the data set
+         * @param centroids the current centroids, only read
+         * @param halfGaps half the distance from each centroid to its nearest other centroid
+         * @param labels the label of each row, updated in place for rows in [start, end)
+         * @param upperBounds the upper bound of each row, updated in place
+         * @param lowerBounds the lower bound of each row, updated in place
+         * @param full true to compare every row against every centroid, ignoring the bounds
+         * @param start the first row
+         * @param end one past the last row
+         */
+        BoundsTask(Dataset data, double[][] centroids, double[] halfGaps, int[] labels, double[] upperBounds, double[] lowerBounds,
+                   boolean full, int start, int end){
+            this.data = data;
+            this.centroids = centroids;
+            this.halfGaps = halfGaps;
+            this.labels = labels;
+            this.upperBounds = upperBounds;
+            this.lowerBounds = lowerBounds;
+            this.full = full;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected long[] compute(){
+            if (this.end - this.start > BLOCK_SIZE) {
+                int middle = this.start + Math.max(1, (this.end - this.start) / 2 / BLOCK_SIZE) * BLOCK_SIZE;
+                BoundsTask left = new BoundsTask(this.data, this.centroids, this.halfGaps, this.labels, this.upperBounds, this.lowerBounds,
+                        this.full, this.start, middle);
+                BoundsTask right = new BoundsTask(this.data, this.centroids, this.halfGaps, this.labels, this.upperBounds, this.lowerBounds,
+                        this.full, middle, this.end);
+                right.fork();
+                long[] counts = left.compute();
+                long[] rightCounts = right.join();
+                counts[0] += rightCounts[0];
+                counts[1] += rightCounts[1];
+                return counts;
+            }
+
+            long labelChanges = 0;
+            long distances = 0;
+            for (int dataIter = this.start; dataIter < this.end; dataIter++) {
+                int label = this.labels[dataIter];
+                if (!this.full) {
+                    //strict comparisons keep exact ties (and NaN bounds) on the path that matches KMeans.labelPoint
+                    double bound = Math.max(this.halfGaps[label], this.lowerBounds[dataIter]);
+                    if (this.upperBounds[dataIter] < bound) continue;
+                    //tighten the upper bound to the real distance and try again
+                    this.upperBounds[dataIter] = Math.sqrt(this.data.distanceSquared(dataIter, this.centroids[label]));
+                    distances++;
+                    if (this.upperBounds[dataIter] < bound) continue;
+                }
+
+                //the bounds could not rule out a change, so compare against every centroid
+                int newLabel = this.relabel(dataIter);
+                distances += this.centroids.length;
+                if (newLabel != label) {
+                    this.labels[dataIter] = newLabel;
+                    labelChanges++;
+                }
+            }
+            return new long[]{labelChanges, distances};
+        }
+
+        /**
+         * labels a row the same way KMeans.labelPoint does and resets its bounds to the nearest and second nearest distances
+         */
+        private int relabel(int row) {
+            double min = this.data.distanceSquared(row, this.centroids[0]);
+            int minIndex = 0;
+            double secondMin = Double.MAX_VALUE;
+            for (int centIter = 1; centIter < this.centroids.length; centIter++) {
+                double distance = this.data.distanceSquared(row, this.centroids[centIter]);
+                if (min > distance){
+                    secondMin = Double.isNaN(min) ? secondMin : min;
+                    min = distance;
+                    minIndex = centIter;
+                }
+                else if (secondMin > distance){
+                    secondMin = distance;
+                }
+            }
+            this.upperBounds[row] = Math.sqrt(min);
+            this.lowerBounds[row] = Math.sqrt(secondMin);
+            return minIndex;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.Arrays;
+
+/**
+ * A spatial index that splits the rows at the median of their widest attribute until at most
+ * LEAF_SIZE rows are left, a query only descends into the halves its radius reaches
+ * It also finds k-th nearest neighbour distances, which need no radius
+ */
+public class KDTree implements SpatialIndex {
+
+    /**
+     * Maximum number of rows in a leaf
+     */
+    private static final int LEAF_SIZE = 16;
+
+    /**
+     * Subtrees are pruned against a radius this much wider than the query radius, so rounding
+     * in the attribute differences can never prune a neighbour
+     */
+    private static final double PRUNE_MARGIN = 1 + 1e-9;
+
+    /**
+     * The indexed data set
+     */
+    private final Dataset data;
+
+    /**
+     * The pruning radius and the squared query radius
+     */
+    private final double pruneRadius;
+    private final double radiusSquared;
+
+    /**
+     * The row indexes, reordered so every node holds a contiguous range
+     */
+    private final int[] rows;
+
+    /**
+     * The split attribute of each node, -1 for leaves
+     */
+    private final int[] splitAttrs;
+
+    /**
+     * The split value of each node, rows of the left child are at most and rows of the right child at least this value
+     */
+    private final double[] splitValues;
+
+    /**
+     * The range of rows of each node, rows[nodeStarts[n]] up to rows[nodeEnds[n]]
+     */
+    private final int[] nodeStarts;
+    private final int[] nodeEnds;
+
+    /**
+     * The number of nodes built so far, node n has children 2n + 1 and 2n + 2
+     */
+    private int numNodes;
+
+    /**
+     * Constructor, builds the tree
+     * @param data the data set
+     * @param radius the query radius
+     */
+    public KDTree(Dataset data, double radius){
+        this.data = data;
+        this.pruneRadius = radius * PRUNE_MARGIN;
+        this.radiusSquared = radius * radius;
+        this.rows = new int[data.getNumRows()];
+        for (int dataIter = 0; dataIter < this.rows.length; dataIter++) {
+            this.rows[dataIter] = dataIter;
+        }
+        //a complete binary tree deep enough that every leaf has at most LEAF_SIZE rows
+        int numLeaves = 1;
+        while ((long) numLeaves * LEAF_SIZE < this.rows.length) {
+            numLeaves *= 2;
+        }
+        this.splitAttrs = new int[2 * numLeaves - 1];
+        this.splitValues = new double[2 * numLeaves - 1];
+        this.nodeStarts = new int[2 * numLeaves - 1];
+        this.nodeEnds = new int[2 * numLeaves - 1];
+        this.build(0, 0, this.rows.length);
+    }
+
+    /**
+     * builds the subtree of a node over a range of rows
+     */
+    private void build(int node, int start, int end) {
+        this.numNodes = Math.max(this.numNodes, node + 1);
+        this.nodeStarts[node] = start;
+        this.nodeEnds[node] = end;
+        if (end - start <= LEAF_SIZE || 2 * node + 2 >= this.splitAttrs.length) {
+            this.splitAttrs[node] = -1;
+            return;
+        }
+
+        //split on the attribute with the widest spread
+        int splitAttr = 0;
+        double widest = -1;
+        for (int attrIter = 0; attrIter < this.data.getNumAttrs(); attrIter++) {
+            double min = Double.MAX_VALUE;
+            double max = -Double.MAX_VALUE;
+            for (int rowIter = start; rowIter < end; rowIter++) {
+                double value = this.data.get(this.rows[rowIter], attrIter);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (max - min > widest) {
+                widest = max - min;
+                splitAttr = attrIter;
+            }
+        }
+        int middle = (start + end) >>> 1;
+        this.select(start, end, middle, splitAttr);
+        this.splitAttrs[node] = splitAttr;
+        this.splitValues[node] = this.data.get(this.rows[middle], splitAttr);
+        this.build(2 * node + 1, start, middle);
+        this.build(2 * node + 2, middle, end);
+    }
+
+    /**
+     * reorders rows[start, end) so rows[k] holds the row with the k-th smallest value of attr,
+     * with smaller or equal values before it and larger or equal values after it (quickselect)
+     */
+    private void select(int start, int end, int k, int attr) {
+        int low = start;
+        int high = end - 1;
+        while (low < high) {
+            double pivot = this.data.get(this.rows[(low + high) >>> 1], attr);
+            int left = low;
+            int right = high;
+            while (left <= right) {
+                while (this.data.get(this.rows[left], attr) < pivot) left++;
+                while (this.data.get(this.rows[right], attr) > pivot) right--;
+                if (left <= right) {
+                    int swap = this.rows[left];
+                    this.rows[left] = this.rows[right];
+                    this.rows[right] = swap;
+                    left++;
+                    right--;
+                }
+            }
+            if (k <= right) {
+                high = right;
+            }
+            else if (k >= left) {
+                low = left;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int forEachNeighbour(int row, Visitor visitor){
+        int visited = this.query(0, row, visitor);
+        return visited < 0 ? ~visited : visited;
+    }
+
+    /**
+     * visits the neighbours of a row in the subtree of a node and returns how many it visited,
+     * or the complement (~visited) once the visitor stops the query, so no counter has to be allocated
+     */
+    private int query(int node, int row, Visitor visitor) {
+        int visited = 0;
+        if (this.splitAttrs[node] == -1) {
+            for (int rowIter = this.nodeStarts[node]; rowIter < this.nodeEnds[node]; rowIter++) {
+                int neighbour = this.rows[rowIter];
+                if (this.data.distanceSquared(row, neighbour) <= this.radiusSquared) {
+                    visited++;
+                    if (!visitor.visit(neighbour)) return ~visited;
+                }
+            }
+            return visited;
+        }
+        double value = this.data.get(row, this.splitAttrs[node]);
+        if (value - this.pruneRadius <= this.splitValues[node]) {
+            visited = this.query(2 * node + 1, row, visitor);
+            if (visited < 0) return visited;
+        }
+        if (value + this.pruneRadius >= this.splitValues[node]) {
+            int right = this.query(2 * node + 2, row, visitor);
+            if (right < 0) return ~(visited + ~right);
+            visited += right;
+        }
+        return visited;
+    }
+
+    /**
+     * Finds the squared distance from a row to its k-th nearest other row, k being the length of nearest,
+     * descending first into the half holding the row and skipping halves further away than the k-th nearest so far;
+     * the result is the same as scanning every row
+     * @param row the index of the row
+     * @param nearest scratch for the k smallest squared distances, in ascending order once done
+     * @return the squared distance to the k-th nearest other row
+     */
+    public double getKDistanceSquared(int row, double[] nearest){
+        Arrays.fill(nearest, Double.MAX_VALUE);
+        this.nearest(0, row, nearest);
+        return nearest[nearest.length - 1];
+    }
+
+    /**
+     * keeps the k smallest squared distances from a row to the other rows in the subtree of a node in nearest
+     */
+    private void nearest(int node, int row, double[] nearest) {
+        int last = nearest.length - 1;
+        if (this.splitAttrs[node] == -1) {
+            for (int rowIter = this.nodeStarts[node]; rowIter < this.nodeEnds[node]; rowIter++) {
+                int other = this.rows[rowIter];
+                if (other == row) continue;
+                double distance = this.data.distanceSquared(row, other);
+                if (distance < nearest[last]) {
+                    //insertion sort the new distance into place
+                    int insertIter = last;
+                    while (insertIter > 0 && nearest[insertIter - 1] > distance) {
+                        nearest[insertIter] = nearest[insertIter - 1];
+                        insertIter--;
+                    }
+                    nearest[insertIter] = distance;
+                }
+            }
+            return;
+        }
+        double offset = this.data.get(row, this.splitAttrs[node]) - this.splitValues[node];
+        int near = offset <= 0 ? 2 * node + 1 : 2 * node + 2;
+        this.nearest(near, row, nearest);
+        //every row of the far half is at least |offset| away along the split attribute
+        if (Math.abs(offset) <= Math.sqrt(nearest[last]) * PRUNE_MARGIN) {
+            this.nearest(near == 2 * node + 1 ? 2 * node + 2 : 2 * node + 1, row, nearest);
+        }
+    }
+
+    /**
+     * Gets the number of nodes in the tree
+     * @return the number of nodes
+     */
+    public int getNumNodes(){
+        return this.numNodes;
+    }
+}
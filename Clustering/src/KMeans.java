@@ -3,123 +3,181 @@
  */
 import java.lang.Math;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class KMeans  extends Clustering{
 
     /**
-     * Number of iterations
+     * Number of rows labeled by one fork/join task, fixed so that the partial sums (and so the
+     * results) do not depend on the number of threads
      */
-    private int maxIterations = Driver.maxIter;
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Decides when to stop iterating, at most Driver.maxIter iterations
+     */
+    protected Convergence convergence = new Convergence(Driver.maxIter);
+
+    /**
+     * Number of threads used to label points and sum centroids
+     */
+    protected int numThreads = Driver.numThreads;
+
+    /**
+     * Used to pick the initial centroids
+     */
+    private Random random = new Random(Driver.seed);
+
+    /**
+     * How the initial centroids are picked
+     */
+    private Seeding seeding = new Seeding(Driver.seeding);
 
     /**
      * Clusters data via the K-means Algorithm
      */
     @Override
-    public int[] cluster(Double[][] data, int numClusters){
-        int cycles =0 ;
-        ArrayList<Integer> labels = null;
+    public int[] cluster(Dataset data, int numClusters){
+        int[] labels = new int[data.getNumRows()];
+        Arrays.fill(labels, -1);
         double[][] centroids = initCentroids(data, numClusters);
-        while(cycles < this.maxIterations){
-            labels = getLabels(centroids, data);
-            centroids = getCentroids(labels, data, numClusters);
-            cycles++;
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try{
+            this.convergence.start();
+            while(!this.convergence.isDone()){
+                //label every block in parallel, each block returns the partial sums of its points
+                CentroidSums sums = pool.invoke(new BlockTask(data, centroids, labels, 0, data.getNumRows()));
+                this.convergence.recordLabelChanges(sums.labelChanges);
+                double[][] newCentroids = averageCentroidSums(sums.sums, sums.divisors);
+                this.convergence.recordCentroids(centroids, newCentroids);
+                centroids = newCentroids;
+                this.convergence.endIteration();
+            }
+        }
+        finally{
+            pool.shutdown();
         }
-        //convert from ArrayList<Integer> to int[]
-        int[]boi = labels.stream().mapToInt(i -> i).toArray();
-        return  boi;
+        this.recordConvergence(this.convergence);
+        return labels;
     }
 
     /**
-     * initializes centroids to random datapoints
+     * Clusters a data set that is read from disk one chunk at a time, so only the centroids,
+     * their running sums and one chunk are held in memory while iterating
+     * Centroids are seeded from the first chunk
+     * The labels of every chunk are kept between passes, so label changes are counted as in memory
+     * and the labels of the last pass are returned without another read of the data set
+     * @param source the data set
+     * @param numClusters the number of clusters
+     * @return the label of every datapoint, in file order
      */
-    public double[][] initCentroids(Double[][] data, int numClusters){
-        double[][] centroids = new double[numClusters][];
-
-        for (int centIter = 0; centIter < numClusters; centIter++) {
-            //pick a random datapoint from the sample and make it a centroid
-            double[] dataValue = new double[data[0].length];
-            for(int attrIter = 0; attrIter < dataValue.length; attrIter++){
-                dataValue[attrIter] = data[(int) (Math.random() * data.length)][attrIter];
+    public int[] cluster(ChunkedDataset source, int numClusters){
+        double[][] centroids = initCentroids(source.getFirstChunk(), numClusters);
+        //[c] holds the labels of chunk c from the last pass, created on the first pass
+        List<int[]> chunkLabels = new ArrayList<>();
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try{
+            this.convergence.start();
+            while(!this.convergence.isDone()){
+                //sum every chunk into the centroids it is closest to, then average once at the end of the pass
+                CentroidSums sums = new CentroidSums(numClusters, centroids[0].length);
+                int chunkIter = 0;
+                for (Dataset chunk: source) {
+                    if (chunkIter == chunkLabels.size()) {
+                        int[] labels = new int[chunk.getNumRows()];
+                        Arrays.fill(labels, -1);
+                        chunkLabels.add(labels);
+                    }
+                    sums.add(pool.invoke(new BlockTask(chunk, centroids, chunkLabels.get(chunkIter++), 0, chunk.getNumRows())));
+                }
+                this.convergence.recordLabelChanges(sums.labelChanges);
+                double[][] newCentroids = averageCentroidSums(sums.sums, sums.divisors);
+                this.convergence.recordCentroids(centroids, newCentroids);
+                centroids = newCentroids;
+                this.convergence.endIteration();
             }
-            centroids[centIter] = dataValue;
         }
-        return centroids;
+        finally{
+            pool.shutdown();
+        }
+        this.recordConvergence(this.convergence);
+
+        //join the chunk labels in file order
+        int numLabels = 0;
+        for (int[] chunk: chunkLabels) {
+            numLabels += chunk.length;
+        }
+        int[] labels = new int[numLabels];
+        int offset = 0;
+        for (int[] chunk: chunkLabels) {
+            System.arraycopy(chunk, 0, labels, offset, chunk.length);
+            offset += chunk.length;
+        }
+        return labels;
     }
 
     /**
-     * assigns the closest centroid to every datapoint
+     * initializes centroids with the seeding method
      */
-    private ArrayList<Integer> getLabels(double[][] centroids, Double[][] data) {
-        ArrayList<Integer> labels = new ArrayList<>();
-
-        for (Double[] point: data) {
-            labels.add(labelPoint(point, centroids));
-        }
-        return labels;
+    public double[][] initCentroids(Dataset data, int numClusters){
+        return this.seeding.initCentroids(data, numClusters, this.random);
     }
 
     /**
      * finds centroid closest to given point and labels that point
      */
-    private int labelPoint(Double[] point, double[][] centroids) {
-        double[] distances = new double[centroids.length];
-
-        for (int centIter = 0; centIter < centroids.length; centIter++) {
-            double sum = 0;
-
-            for (int dimIter = 0; dimIter < centroids[0].length; dimIter++) {
-                //square the difference in each dimension then add it to the sum
-                sum += Math.pow( point[dimIter] - centroids[centIter][dimIter], 2);
+    protected static int labelPoint(Dataset data, int row, double[][] centroids) {
+        //squared distance orders centroids the same as the distance, so no sqrt is needed
+        double min = data.distanceSquared(row, centroids[0]);
+        int minIndex = 0;
+        for (int centIter = 1; centIter < centroids.length; centIter++) {
+            double distance = data.distanceSquared(row, centroids[centIter]);
+            if (min > distance){
+                min = distance;
+                minIndex = centIter;
             }
-            distances[centIter] = Math.sqrt(sum);
         }
         //return the index of the minimum value to be used as a label
-        return findMinIndex(distances);
+        return minIndex;
     }
 
     /**
-     * create a new set of centroids by averaging position of all points associated with each centroid
+     * create a new set of centroids by averaging position of all points associated with each centroid,
+     * summing in the same blocks as cluster so both give bit-identical centroids for the same labels
      */
-    private double[][] getCentroids(ArrayList<Integer> labels, Double[][] data, int numClusters) {
-
-        //init all values to 0.0
-        double[][] newCentroids = new double[numClusters][data[0].length];
+    protected static double[][] getCentroids(ForkJoinPool pool, Dataset data, int[] labels, int numClusters) {
+        CentroidSums sums = pool.invoke(new BlockTask(data, null, labels, 0, data.getNumRows(), numClusters));
+        return averageCentroidSums(sums.sums, sums.divisors);
+    }
 
-        int[] divisors = new int[numClusters];
-        //loop thru each datapoint
-        for (int dataIter = 0; dataIter < data.length; dataIter++) {
-            //loop through each dimension of all datapoints
-            for (int dimIter = 0; dimIter < data[0].length; dimIter++) {
-                //get centroid assigned to this datapoint and add dimensions to dimensions of the centroid
-                newCentroids[labels.get(dataIter)][dimIter] += data[dataIter][dimIter];
-            }
-            divisors[labels.get(dataIter)]++; //iterate divisor for this centroid 
-        }
-        
-        //loop through all dimensions of all newCentroids
-        for (int centIter = 0; centIter < numClusters; centIter++) {
-            for (int dimIter = 0; dimIter < newCentroids[0].length; dimIter++) {
-                //divide every dimension sum by the divisor associated with the centroid
-                newCentroids[centIter][dimIter] = newCentroids[centIter][dimIter]/divisors[centIter];
-            }
+    /**
+     * adds a datapoint to the running sum of the centroid it is labeled with
+     */
+    protected static void addToCentroidSum(Dataset data, int row, int label, double[][] sums, int[] divisors) {
+        //loop through each dimension of the datapoint
+        for (int dimIter = 0; dimIter < data.getNumAttrs(); dimIter++) {
+            //add dimensions to dimensions of the centroid
+            sums[label][dimIter] += data.get(row, dimIter);
         }
-        return newCentroids;
+        divisors[label]++; //iterate divisor for this centroid
     }
 
     /**
-     * finds the minimum value in the input array and returns the index to be used as a label
+     * turns the running sums into centroids by dividing each by its number of datapoints (in place)
      */
-    private int findMinIndex(double[] distances) {
-        double min = distances[0];
-        int minIndex = 0;
-        //loops through all distances and finds the index of the minimum value
-        for (int distIter = 0; distIter < distances.length; distIter++) {
-            if (min > distances[distIter]){
-                min = distances[distIter];
-                minIndex = distIter;
+    protected static double[][] averageCentroidSums(double[][] sums, int[] divisors) {
+        //loop through all dimensions of all centroids
+        for (int centIter = 0; centIter < sums.length; centIter++) {
+            for (int dimIter = 0; dimIter < sums[0].length; dimIter++) {
+                //divide every dimension sum by the divisor associated with the centroid
+                sums[centIter][dimIter] = sums[centIter][dimIter]/divisors[centIter];
             }
         }
-        return minIndex;
+        return sums;
     }
 
     /**
@@ -127,6 +185,156 @@ public class KMeans  extends Clustering{
      * @param maxIterations the maximum number of iterations
      */
     public void setMaxIterations(int maxIterations){
-        this.maxIterations = maxIterations;
+        this.convergence = new Convergence(maxIterations);
+    }
+
+    /**
+     * Sets the convergence policy deciding when to stop iterating
+     * @param convergence the convergence policy
+     */
+    public void setConvergence(Convergence convergence){
+        this.convergence = convergence;
+    }
+
+    /**
+     * Sets the number of threads used to label points and sum centroids
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+        this.seeding.setNumThreads(numThreads);
+    }
+
+    /**
+     * Sets the seed used to pick the initial centroids
+     * @param seed the seed
+     */
+    public void setSeed(long seed){
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets how the initial centroids are picked
+     * @param seeding the seeding method
+     */
+    public void setSeeding(Seeding seeding){
+        this.seeding = seeding;
+        this.seeding.setNumThreads(this.numThreads);
+    }
+
+    /**
+     * Partial centroid sums and counts over some of the datapoints
+     */
+    private static class CentroidSums {
+
+        /**
+         * [i][j] holds the sum of attribute j over the points labeled i
+         */
+        private final double[][] sums;
+
+        /**
+         * [i] holds the number of points labeled i
+         */
+        private final int[] divisors;
+
+        /**
+         * The number of points whose label changed
+         */
+        private int labelChanges;
+
+        /**
+         * Constructor, all sums start at zero
+         * @param numClusters the number of centroids
+         * @param numAttrs the number of attributes
+         */
+        CentroidSums(int numClusters, int numAttrs){
+            this.sums = new double[numClusters][numAttrs];
+            this.divisors = new int[numClusters];
+        }
+
+        /**
+         * Adds another set of partial sums into this one
+         * @param other the other partial sums
+         */
+        void add(CentroidSums other){
+            for (int centIter = 0; centIter < this.sums.length; centIter++) {
+                for (int dimIter = 0; dimIter < this.sums[centIter].length; dimIter++) {
+                    this.sums[centIter][dimIter] += other.sums[centIter][dimIter];
+                }
+                this.divisors[centIter] += other.divisors[centIter];
+            }
+            this.labelChanges += other.labelChanges;
+        }
+    }
+
+    /**
+     * Labels a range of rows and sums them into partial centroid sums, splitting into halves until a
+     * range is at most BLOCK_SIZE rows; halves are always joined left then right so the result is deterministic
+     */
+    private static class BlockTask extends RecursiveTask<CentroidSums> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Dataset data;
+        private final double[][] centroids;
+        private final int[] labels;
+        private final int start;
+        private final int end;
+        private final int numClusters;
+
+        /**
+         * Constructor for a task that labels rows and sums them
+         * @param data the data set
+         * @param centroids the current centroids, only read
+         * @param labels the label of each row, updated in place for rows in [start, end)
+         * @param start the first row
+         * @param end one past the last row
+         */
+        BlockTask(Dataset data, double[][] centroids, int[] labels, int start, int end){
+            this(data, centroids, labels, start, end, centroids.length);
+        }
+
+        /**
+         * Constructor
+         * @param data the data set
+         * @param centroids the current centroids, or null to only sum the rows with their existing labels
+         * @param labels the label of each row, updated in place for rows in [start, end) unless centroids is null
+         * @param start the first row
+         * @param end one past the last row
+         * @param numClusters the number of centroids
+         */
+        BlockTask(Dataset data, double[][] centroids, int[] labels, int start, int end, int numClusters){
+            this.data = data;
+            this.centroids = centroids;
+            this.labels = labels;
+            this.start = start;
+            this.end = end;
+            this.numClusters = numClusters;
+        }
+
+        @Override
+        protected CentroidSums compute(){
+            if (this.end - this.start > BLOCK_SIZE) {
+                //split on a block boundary so the blocks are the same for any number of threads
+                int middle = this.start + Math.max(1, (this.end - this.start) / 2 / BLOCK_SIZE) * BLOCK_SIZE;
+                BlockTask left = new BlockTask(this.data, this.centroids, this.labels, this.start, middle, this.numClusters);
+                BlockTask right = new BlockTask(this.data, this.centroids, this.labels, middle, this.end, this.numClusters);
+                right.fork();
+                CentroidSums sums = left.compute();
+                sums.add(right.join());
+                return sums;
+            }
+
+            CentroidSums sums = new CentroidSums(this.numClusters, this.data.getNumAttrs());
+            for (int dataIter = this.start; dataIter < this.end; dataIter++) {
+                int label = this.centroids == null ? this.labels[dataIter] : labelPoint(this.data, dataIter, this.centroids);
+                if (this.labels[dataIter] != label) {
+                    this.labels[dataIter] = label;
+                    sums.labelChanges++;
+                }
+                addToCentroidSum(this.data, dataIter, label, sums.sums, sums.divisors);
+            }
+            return sums;
+        }
     }
 }
@@ -0,0 +1,37 @@
+/**
+ * A spatial index that compares a query row against every row, for checking the other indexes
+ */
+public class LinearScan implements SpatialIndex {
+
+    /**
+     * The indexed data set
+     */
+    private final Dataset data;
+
+    /**
+     * The squared query radius
+     */
+    private final double radiusSquared;
+
+    /**
+     * Constructor
+     * @param data the data set
+     * @param radius the query radius
+     */
+    public LinearScan(Dataset data, double radius){
+        this.data = data;
+        this.radiusSquared = radius * radius;
+    }
+
+    @Override
+    public int forEachNeighbour(int row, Visitor visitor){
+        int visited = 0;
+        for (int scanIter = 0; scanIter < this.data.getNumRows(); scanIter++) {
+            if (this.data.distanceSquared(row, scanIter) <= this.radiusSquared) {
+                visited++;
+                if (!visitor.visit(scanIter)) break;
+            }
+        }
+        return visited;
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.Random;
+
+/**
+ * Mini-batch K-Means clustering
+ * Each iteration assigns only a random batch of datapoints and moves their centroids towards them,
+ * with a per-centroid learning rate of 1 / (number of points that centroid has absorbed so far)
+ * Convergence sees the centroid shift of each batch and the objective of each batch; the labels of
+ * different batches are different points, so the stable labels criterion never applies
+ */
+public class MiniBatchKMeans extends Clustering{
+
+    /**
+     * Decides when to stop iterating, each iteration is one batch
+     */
+    private Convergence convergence = new Convergence(Driver.maxIter);
+
+    /**
+     * Number of datapoints sampled per iteration
+     */
+    private int batchSize = Driver.batchSize;
+
+    /**
+     * Used to pick centroids and batches
+     */
+    private Random random = new Random(Driver.seed);
+
+    /**
+     * How the initial centroids are picked
+     */
+    private Seeding seeding = new Seeding(Driver.seeding);
+
+    /**
+     * Clusters data via the mini-batch K-means Algorithm
+     */
+    @Override
+    public int[] cluster(Dataset data, int numClusters){
+        double[][] centroids = initCentroids(data, numClusters);
+        //number of datapoints each centroid has absorbed, sets its learning rate
+        int[] centroidCounts = new int[numClusters];
+        int batchSize = Math.min(this.batchSize, data.getNumRows());
+        int[] batch = new int[batchSize];
+        int[] batchLabels = new int[batchSize];
+        //the centroids before the current batch, to measure how far it moved them
+        double[][] oldCentroids = new double[numClusters][data.getNumAttrs()];
+
+        this.convergence.start();
+        while (!this.convergence.isDone()) {
+            //sample the batch and label it against the current centroids
+            double objective = 0;
+            for (int batchIter = 0; batchIter < batchSize; batchIter++) {
+                batch[batchIter] = this.random.nextInt(data.getNumRows());
+                batchLabels[batchIter] = KMeans.labelPoint(data, batch[batchIter], centroids);
+                objective += Math.sqrt(data.distanceSquared(batch[batchIter], centroids[batchLabels[batchIter]]));
+            }
+            this.convergence.recordObjective(objective);
+            for (int centIter = 0; centIter < numClusters; centIter++) {
+                System.arraycopy(centroids[centIter], 0, oldCentroids[centIter], 0, data.getNumAttrs());
+            }
+
+            //move each labeled centroid towards its point by that centroid's learning rate
+            for (int batchIter = 0; batchIter < batchSize; batchIter++) {
+                double[] centroid = centroids[batchLabels[batchIter]];
+                centroidCounts[batchLabels[batchIter]]++;
+                double learningRate = 1.0 / centroidCounts[batchLabels[batchIter]];
+                for (int dimIter = 0; dimIter < centroid.length; dimIter++) {
+                    centroid[dimIter] += learningRate * (data.get(batch[batchIter], dimIter) - centroid[dimIter]);
+                }
+            }
+            this.convergence.recordCentroids(oldCentroids, centroids);
+            this.convergence.endIteration();
+        }
+        this.recordConvergence(this.convergence);
+
+        //label every datapoint with the final centroids
+        int[] labels = new int[data.getNumRows()];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            labels[dataIter] = KMeans.labelPoint(data, dataIter, centroids);
+        }
+        return labels;
+    }
+
+    /**
+     * initializes centroids with the seeding method
+     */
+    private double[][] initCentroids(Dataset data, int numClusters){
+        return this.seeding.initCentroids(data, numClusters, this.random);
+    }
+
+    /**
+     * Sets the maximum number of iterations, keeping the other convergence criteria from Driver
+     * @param maxIterations the maximum number of iterations
+     */
+    public void setMaxIterations(int maxIterations){
+        this.convergence = new Convergence(maxIterations);
+    }
+
+    /**
+     * Sets the convergence policy deciding when to stop iterating
+     * @param convergence the convergence policy
+     */
+    public void setConvergence(Convergence convergence){
+        this.convergence = convergence;
+    }
+
+    /**
+     * Sets the seed used to pick the initial centroids and the batches
+     * @param seed the seed
+     */
+    public void setSeed(long seed){
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets how the initial centroids are picked
+     * @param seeding the seeding method
+     */
+    public void setSeeding(Seeding seeding){
+        this.seeding = seeding;
+    }
+
+    /**
+     * Sets the number of datapoints sampled per iteration
+     * @param batchSize the number of datapoints sampled per iteration, at least 1
+     */
+    public void setBatchSize(int batchSize){
+        if(batchSize < 1) throw new IllegalArgumentException("batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The neighbours of every row computed once and stored in compressed sparse row form:
+ * the neighbours of row i are neighbours[offsets[i]] up to neighbours[offsets[i + 1]]
+ * Queries after the build only read the arrays, so no distance is computed twice
+ */
+public class NeighbourLists implements SpatialIndex {
+
+    /**
+     * Number of rows queried by one fork/join task while building
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * [i] is where the neighbours of row i start, [numRows] is the total number of neighbours
+     */
+    private final int[] offsets;
+
+    /**
+     * The neighbours of every row, one row after another
+     */
+    private final int[] neighbours;
+
+    /**
+     * Constructor
+     * @param offsets where the neighbours of each row start
+     * @param neighbours the neighbours of every row
+     */
+    private NeighbourLists(int[] offsets, int[] neighbours){
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+    }
+
+    /**
+     * Runs one query per row against an index and stores the results
+     * @param index the index answering the queries
+     * @param numRows the number of rows in the data set
+     * @param maxBytes the most memory the lists may use
+     * @return the lists, or null if they would need more than maxBytes
+     */
+    public static NeighbourLists build(SpatialIndex index, int numRows, long maxBytes){
+        return build(index, numRows, maxBytes, 1);
+    }
+
+    /**
+     * Runs one query per row against an index in parallel blocks of rows and stores the results
+     * The bound applies to the finished lists, while they are joined the per-block lists briefly exist as well
+     * @param index the index answering the queries, must allow concurrent queries
+     * @param numRows the number of rows in the data set
+     * @param maxBytes the most memory the lists may use
+     * @param numThreads the number of threads
+     * @return the lists, or null if they would need more than maxBytes
+     */
+    public static NeighbourLists build(SpatialIndex index, int numRows, long maxBytes, int numThreads){
+        long offsetBytes = (long) (numRows + 1) * Integer.BYTES;
+        if (offsetBytes > maxBytes) return null;
+        long maxNeighbours = Math.min(Integer.MAX_VALUE - 8, (maxBytes - offsetBytes) / Integer.BYTES);
+
+        //every block collects the neighbours of its rows, the shared total stops all blocks once the bound is passed
+        int[] offsets = new int[numRows + 1];
+        int numBlocks = BlockAction.getNumBlocks(numRows, BLOCK_SIZE);
+        int[][] blockNeighbours = new int[numBlocks][];
+        AtomicLong total = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try{
+            pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                BlockCollector collector = new BlockCollector();
+                for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(numRows, (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                    int count = index.forEachNeighbour(dataIter, collector);
+                    if (total.addAndGet(count) > maxNeighbours) return;
+                    offsets[dataIter + 1] = count;
+                }
+                blockNeighbours[blockIter] = Arrays.copyOf(collector.neighbours, collector.size);
+            }));
+        }
+        finally{
+            pool.shutdown();
+        }
+        if (total.get() > maxNeighbours) return null;
+
+        //join the blocks in row order
+        int[] neighbours = new int[(int) total.get()];
+        for (int dataIter = 0; dataIter < numRows; dataIter++) {
+            offsets[dataIter + 1] += offsets[dataIter];
+        }
+        for (int blockIter = 0; blockIter < numBlocks; blockIter++) {
+            int start = offsets[blockIter * BLOCK_SIZE];
+            System.arraycopy(blockNeighbours[blockIter], 0, neighbours, start, blockNeighbours[blockIter].length);
+            blockNeighbours[blockIter] = null;
+        }
+        return new NeighbourLists(offsets, neighbours);
+    }
+
+    @Override
+    public int forEachNeighbour(int row, Visitor visitor){
+        for (int neighbourIter = this.offsets[row]; neighbourIter < this.offsets[row + 1]; neighbourIter++) {
+            if (!visitor.visit(this.neighbours[neighbourIter])) {
+                return neighbourIter - this.offsets[row] + 1;
+            }
+        }
+        return this.offsets[row + 1] - this.offsets[row];
+    }
+
+    /**
+     * Gets the number of neighbours of a row without visiting them
+     * @param row the index of the row
+     * @return the number of neighbours
+     */
+    public int getNumNeighbours(int row){
+        return this.offsets[row + 1] - this.offsets[row];
+    }
+
+    /**
+     * Gets the total number of neighbours stored
+     * @return the total number of neighbours
+     */
+    public long getNumEntries(){
+        return this.neighbours.length;
+    }
+
+    /**
+     * Gets the memory used by the lists
+     * @return the number of bytes in the offset and neighbour arrays
+     */
+    public long getMemoryBytes(){
+        return ((long) this.offsets.length + this.neighbours.length) * Integer.BYTES;
+    }
+
+    /**
+     * Appends every neighbour it visits to a growing array
+     */
+    private static class BlockCollector implements Visitor {
+
+        private int[] neighbours = new int[BLOCK_SIZE];
+        private int size;
+
+        @Override
+        public boolean visit(int neighbour){
+            if (this.size == this.neighbours.length) {
+                this.neighbours = Arrays.copyOf(this.neighbours, 2 * this.size);
+            }
+            this.neighbours[this.size++] = neighbour;
+            return true;
+        }
+    }
+}
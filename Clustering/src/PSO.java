@@ -1,246 +1,282 @@
 import java.lang.Math;
-import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Particle Swarm Optimization clustering
  */
 public class PSO extends Clustering {
-    private Particle[] swarm;
+    private Swarm swarm;
     private final int swarmSize = Driver.swarmSize;
-    private Particle bestParticle;
     private final double interita = Driver.inertia;
     private final double phiMax = Driver.phiMax;
     private double[] maxVelocity;
     private int numClusters;
-    private int maxIter = Driver.maxIter;
+    private Convergence convergence = new Convergence(Driver.maxIter);
+    private Seeding seeding = new Seeding(Driver.seeding);
+    private Random random = new Random(Driver.seed);
+    private int numThreads = Driver.numThreads;
+    //the rows particles are evaluated on, every row unless a sample size is set
+    private FitnessSample sample;
+    private int sampleSize = Driver.sampleSize;
+    //the fitness of the global best position on the current sample, its exact fitness is kept by the swarm
+    private double globalBestEstimate;
+
+    /**
+     * Number of rows summed by one fork/join task when a single particle is evaluated on every row
+     */
+    private static final int BLOCK_SIZE = 4096;
 
     @Override
-    public int[] cluster(Double[][] data, int numClusters) {
+    public int[] cluster(Dataset data, int numClusters) {
         this.numClusters = numClusters;
-        int cycles = 0;
         setMaxVelocity(data);       //sets the max velocity for each attribute
         initSwarm(data);            //initializes swarm with particles with random points as
-        while (cycles < maxIter) {      // positions and random points as velocities
-            calcFitness(data);      //calcs and assigns fitness to all particles in swarm
-            updateVelocity();
-            updatePosition();
-            cycles++;
-            System.out.println("best fitness :\t" + this.bestParticle.getFitness());
+        this.convergence.start();   // positions and random points as velocities
+        this.sample = new FitnessSample(data.getNumRows(), this.sampleSize, this.random);
+        this.globalBestEstimate = Double.MAX_VALUE;
+        //reused every iteration: [p] holds the fitness of particle p, [2p] and [2p + 1] its phi1 and phi2
+        double[] fitnesses = new double[this.swarmSize];
+        double[] phis = new double[2 * this.swarmSize];
+        long updates = 0;
+        long startNanos = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try {
+            while (!this.convergence.isDone()) {
+                calcFitness(data, pool, fitnesses);     //calcs and assigns fitness to all particles in swarm
+                updateParticles(pool, phis);            //updates velocity then position of all particles
+                updates += this.swarmSize;
+                this.convergence.recordObjective(this.swarm.getGlobalBestFitness());
+                this.convergence.endIteration();
+                System.out.println("best fitness :\t" + this.swarm.getGlobalBestFitness());
+            }
         }
+        finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("Particle updates: %d in %.1f ms (%.0f per second)%n", updates, seconds * 1e3, updates / seconds);
+        this.recordConvergence(this.convergence);
 
-        System.out.println("Final fitness :\t" + this.bestParticle.getBestFitness());
-        //return this.bestParticle.getBestPosition();
+        System.out.println("Final fitness :\t" + this.swarm.getGlobalBestFitness());
 
-        int[] labels = getLabels(this.bestParticle.getBestPosition(), data).stream().mapToInt(i -> i).toArray();
-        ;
-        return labels;
+        return getLabels(this.swarm.getGlobalBestCentroids(), data);
     }
 
     /**
      * initializes swarm with random datapoints as initial velocity values
      */
-    private void initSwarm(Double[][] data) {
-        this.swarm = new Particle[this.swarmSize];
+    private void initSwarm(Dataset data) {
+        this.swarm = new Swarm(this.swarmSize, this.numClusters, data.getNumAttrs());
 
         for (int swarmIter = 0; swarmIter < swarmSize; swarmIter++) {
 
-            //make initial position for each new Particle
-            double[][] randPosition = new double[this.numClusters][data[0].length];
+            //make initial position for each new Particle with the seeding method
+            double[][] randPosition = this.seeding.initCentroids(data, this.numClusters, this.random);
 
             //make initial velocity for each new Particle
-            double[][] randVelocity = new double[this.numClusters][data[0].length];
+            double[][] randVelocity = new double[this.numClusters][data.getNumAttrs()];
 
-            //fill randPosition with random points to be centroids
             //fill randVelocity with random points to be the velocity
             for (int clusterIter = 0; clusterIter < this.numClusters; clusterIter++) {
-                // casts Double[][] to double[][]
-                for(int attrIter = 0; attrIter < data[0].length; attrIter++){
-                    randPosition[clusterIter][attrIter] = data[(int) (Math.random() * data.length)][attrIter];
+                for(int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++){
                     //divide by 4 to start velocities off small
-                    randVelocity[clusterIter][attrIter] = data[(int) (Math.random() * data.length / 4)][attrIter];
+                    randVelocity[clusterIter][attrIter] = data.get((int) (this.random.nextDouble() * data.getNumRows() / 4), attrIter);
                 }
             }
-            //create new particle with random position then add to swarm
-            this.swarm[swarmIter] = new Particle(randPosition, randVelocity);
-            this.swarm[swarmIter].setBestPosition(this.swarm[swarmIter].getPosition());
-            this.swarm[swarmIter].setBestVelocity(this.swarm[swarmIter].getVelocity());
+            //copy the particle into the swarm, its best position starts as its position
+            this.swarm.setParticle(swarmIter, randPosition, randVelocity);
         }
-        //set best particle to a random particle to avoid null pointers on first round of calcFitness
-        this.bestParticle = this.swarm[(int) (Math.random() * this.swarmSize)];
     }
 
     /**
      * for all particles calculate the average distance all datapoints are away from their closest centroid
+     * The particles are evaluated in parallel, then the personal and global bests are updated in swarm
+     * order so the result does not depend on the number of threads
+     * On a sample, only the particle with the lowest estimate can become the global best, and only once its
+     * fitness on every row confirms it; the sample grows whenever no new global best is confirmed, and the
+     * personal and global bests are then estimated again so estimates are only ever compared on the same rows
      */
-    private void calcFitness(Double[][] data) {
-        for (Particle particle : this.swarm) {
-            int[] labels = makeLables(particle, data);
-            double distSum = 0.0;
-            for (int dataIter = 0; dataIter < data.length; dataIter++) {
-                double pointSum = 0.0;
-                for (int dimIter = 0; dimIter < data[dataIter].length; dimIter++) {
-                    //calc squared difference between point and closest centroid in the particle
-                    pointSum += Math.pow(data[dataIter][dimIter] - particle.getPosition()[labels[dataIter]][dimIter], 2);
-                }
-                distSum += Math.sqrt(pointSum);
-            }
-            double fitness = distSum / this.numClusters;
-            particle.setFitness(fitness);
+    private void calcFitness(Dataset data, ForkJoinPool pool, double[] fitnesses) {
+        double[] positions = this.swarm.getPositions();
+        estimateFitnesses(data, pool, positions, fitnesses);
 
-            if (fitness < particle.getBestFitness()) {
-                particle.setBestFitness(fitness);
-                particle.setBestVelocity(particle.getVelocity());
-                particle.setBestPosition(particle.getPosition());
+        if (this.sample.isFull()) {
+            this.swarm.recordFitnesses(fitnesses);
+            for (int particleIter = 0; particleIter < this.swarmSize; particleIter++) {
+                this.swarm.offerGlobalBest(particleIter, fitnesses[particleIter]);
             }
-
-            if (particle.getFitness() < this.bestParticle.getFitness()) {
-                this.bestParticle = particle;
+            return;
+        }
+        int candidate = 0;
+        for (int particleIter = 1; particleIter < this.swarmSize; particleIter++) {
+            if (fitnesses[particleIter] < fitnesses[candidate]) {
+                candidate = particleIter;
             }
         }
-    }
-
-    /**
-     * updates velocity for all particles in swarm
-     */
-    private void updateVelocity() {
-        for (Particle particle : this.swarm) {
-            double phi1 = Math.random() * this.phiMax;
-            double phi2 = Math.random() * this.phiMax;
-            double[][] globalBest = this.bestParticle.getBestPosition();
-            double[][] personalBest = particle.getBestPosition();
-            double[][] newVelocity = particle.getVelocity();
-
-            for (int centIter = 0; centIter < globalBest.length; centIter++) {
-                for (int dimIter = 0; dimIter < globalBest[0].length; dimIter++) {
-                    globalBest[centIter][dimIter] = phi2 * (globalBest[centIter][dimIter] - particle.getPosition()[centIter][dimIter]);
-                    personalBest[centIter][dimIter] = phi1 * (personalBest[centIter][dimIter] - particle.getPosition()[centIter][dimIter]);
-                    newVelocity[centIter][dimIter] = this.interita * newVelocity[centIter][dimIter];
-                }
+        boolean confirmed = false;
+        if (fitnesses[candidate] < this.globalBestEstimate) {
+            double fitness = evaluateFitness(data, pool, positions, this.swarm.getOffset(candidate));
+            confirmed = this.swarm.offerGlobalBest(candidate, fitness);
+            if (confirmed) {
+                this.globalBestEstimate = fitnesses[candidate];
             }
-            for (int centIter = 0; centIter < globalBest.length; centIter++) {
-                for (int dimIter = 0; dimIter < globalBest[0].length; dimIter++) {
-                    //compute the new value
-                    double newVel = newVelocity[centIter][dimIter] + personalBest[centIter][dimIter] + globalBest[centIter][dimIter];
-                    //check if the new value is above max velocity to avoid runaway velocities
-                    if (newVel > this.maxVelocity[dimIter]) {
-                        newVel = this.maxVelocity[dimIter];
-                    }
-                    newVelocity[centIter][dimIter] = newVel;
-                }
+        }
+        this.swarm.recordFitnesses(fitnesses);
+        if (!confirmed) {
+            this.sample.grow();
+            System.out.println("Fitness sample grown to " + this.sample.getRows().length + " rows");
+            //the bests were estimated on the old rows, estimate them again on the new ones
+            estimateFitnesses(data, pool, this.swarm.getBestPositions(), fitnesses);
+            this.swarm.setBestFitnesses(fitnesses);
+            if (this.swarm.getGlobalBestFitness() < Double.MAX_VALUE) {
+                this.globalBestEstimate = this.sample.getScale() * evaluateFitness(data, this.sample.isFull() ? null : this.sample.getRows(),
+                        0, this.sample.getRows().length, this.swarm.getGlobalBestPosition(), 0) / this.numClusters;
             }
-            particle.setVelocity(newVelocity);
-
         }
     }
 
     /**
-     * updates position for all particles in swarm
+     * estimates the fitness of every particle at the given positions on the current sample, in parallel
+     * @param positions flat positions laid out like the swarm's
+     * @param fitnesses [p] receives the estimate for particle p
      */
-    private void updatePosition() {
-        for (Particle particle : this.swarm) {
-
-            double[][] newPosition = particle.getPosition();
-            for (int centIter = 0; centIter < particle.getPosition().length; centIter++) {
-                for (int dimIter = 0; dimIter < particle.getPosition()[0].length; dimIter++) {
-                    newPosition[centIter][dimIter] = newPosition[centIter][dimIter] + particle.getVelocity()[centIter][dimIter];
-                }
-            }
-            particle.setPosition(newPosition);
-        }
+    private void estimateFitnesses(Dataset data, ForkJoinPool pool, double[] positions, double[] fitnesses) {
+        int[] rows = this.sample.isFull() ? null : this.sample.getRows();
+        int numSamples = this.sample.getRows().length;
+        double scale = this.sample.getScale();
+        pool.invoke(new BlockAction(0, this.swarmSize, (particleIter) -> {
+            fitnesses[particleIter] = scale * evaluateFitness(data, rows, 0, numSamples, positions, this.swarm.getOffset(particleIter)) / this.numClusters;
+        }));
     }
 
     /**
-     * finds centroid closest to given point and labels that point
+     * evaluates one particle on every row, summing blocks of rows in parallel and then in order
+     * @param positions the flat positions of the swarm
+     * @param offset the index of the particle's first centroid in positions
      */
-    private int labelPoint(Double[] point, double[][] centroids) {
-        double[] distances = new double[centroids.length];
-
-        for (int centIter = 0; centIter < centroids.length; centIter++) {
-            double sum = 0;
-
-            for (int dimIter = 0; dimIter < centroids[0].length; dimIter++) {
-                //square the difference in each dimension then add it to the sum
-                sum += Math.pow(point[dimIter] - centroids[centIter][dimIter], 2);
-            }
-            distances[centIter] = Math.sqrt(sum);
+    private double evaluateFitness(Dataset data, ForkJoinPool pool, double[] positions, int offset) {
+        double[] blockSums = new double[BlockAction.getNumBlocks(data.getNumRows(), BLOCK_SIZE)];
+        pool.invoke(new BlockAction(0, blockSums.length, (blockIter) -> {
+            blockSums[blockIter] = evaluateFitness(data, null, blockIter * BLOCK_SIZE, Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE), positions, offset);
+        }));
+        double distSum = 0.0;
+        for (double blockSum : blockSums) {
+            distSum += blockSum;
         }
-        //return the index of the minimum value to be used as a label
-        return findMinIndex(distances);
+        return distSum / this.numClusters;
     }
 
     /**
-     * assigns the closest centroid to every datapoint
+     * sums the distance from a range of datapoints to their closest centroid
+     * The closest centroid is found while summing, so no labels or distances are stored
+     * @param rows the sampled rows, null for every row
+     * @param start the first index into rows
+     * @param end one past the last index into rows
+     * @param positions the flat positions of the swarm
+     * @param offset the index of the particle's first centroid in positions
      */
-    private ArrayList<Integer> getLabels(double[][] centroids, Double[][] data) {
-        ArrayList<Integer> labels = new ArrayList<>();
-
-        for (Double[] point : data) {
-            labels.add(labelPoint(point, centroids));
+    private double evaluateFitness(Dataset data, int[] rows, int start, int end, double[] positions, int offset) {
+        int numAttrs = data.getNumAttrs();
+        double distSum = 0.0;
+        for (int sampleIter = start; sampleIter < end; sampleIter++) {
+            int row = rows == null ? sampleIter : rows[sampleIter];
+            //squared distance orders centroids the same as the distance, so only the closest is rooted
+            double min = data.distanceSquared(row, positions, offset);
+            for (int centIter = 1; centIter < this.numClusters; centIter++) {
+                double distance = data.distanceSquared(row, positions, offset + centIter * numAttrs);
+                if (distance < min) {
+                    min = distance;
+                }
+            }
+            distSum += Math.sqrt(min);
         }
-        return labels;
+        return distSum;
     }
 
     /**
-     * assigns the closest centroid to every datapoint
+     * updates velocity then position for all particles in swarm
+     * The random factors are drawn in swarm order before the parallel moves, so they do not depend on the
+     * number of threads; every move only touches its own particle and reads the global best
      */
-    private int[] makeLables(Particle particle, Double[][] data) {
-        int[] lables = new int[data.length];
-        double[][] centroids = particle.getPosition();
-
-        for (int pointIter = 0; pointIter < data.length; pointIter++) {
-
-            //holds the distances from a point to all centroids
-            double[] distances = new double[centroids.length];
-            //find distance from point to all centroids
-            for (int centIter = 0; centIter < centroids.length; centIter++) {
-
-                double sum = 0;
-                for (int dimIter = 0; dimIter < centroids[0].length; dimIter++) {
-                    //square the difference in each dimension then add it to the sum
-                    sum += Math.pow(data[pointIter][dimIter] - centroids[centIter][dimIter], 2);
-                }
-                distances[centIter] = Math.sqrt(sum);
-            }
-            lables[pointIter] = findMinIndex(distances);
+    private void updateParticles(ForkJoinPool pool, double[] phis) {
+        for (int phiIter = 0; phiIter < phis.length; phiIter++) {
+            phis[phiIter] = this.random.nextDouble() * this.phiMax;
         }
-
-        return lables;
+        pool.invoke(new BlockAction(0, this.swarmSize, (particleIter) -> {
+            this.swarm.move(particleIter, phis[2 * particleIter], phis[2 * particleIter + 1], this.interita, this.maxVelocity);
+        }));
     }
 
     /**
-     * finds the minimum value in the input array and returns the index to be used as a label
+     * assigns the closest centroid to every datapoint, with the same argmin as KMeans
      */
-    private int findMinIndex(double[] distances) {
-        double min = distances[0];
-        int minIndex = 0;
-        //loops through all distances and finds the index of the minimum value
-        for (int distIter = 0; distIter < distances.length; distIter++) {
-            if (min > distances[distIter]) {
-                min = distances[distIter];
-                minIndex = distIter;
-            }
+    private int[] getLabels(double[][] centroids, Dataset data) {
+        int[] labels = new int[data.getNumRows()];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            labels[dataIter] = KMeans.labelPoint(data, dataIter, centroids);
         }
-        return minIndex;
+        return labels;
     }
 
     /**
      * sets the max velocity for each attribute by finding the max value for that attribute
      * and setting the max velocity to 1/10th of the max
      */
-    private void setMaxVelocity(Double[][] data) {
+    private void setMaxVelocity(Dataset data) {
         //holds maximim values for all attributes
-        double[] maxValues = new double[data[0].length];
+        double[] maxValues = new double[data.getNumAttrs()];
         //loop through all datapoints
-        for (Double[] point : data) {
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
             //loop through all attributes of each point
-            for (int attIter = 0; attIter < point.length; attIter++) {
+            for (int attIter = 0; attIter < data.getNumAttrs(); attIter++) {
 
                 //update max value for attribute if new max is found
-                if (point[attIter] > maxValues[attIter] * 10) {
-                    maxValues[attIter] = point[attIter] / 10;
+                if (data.get(dataIter, attIter) > maxValues[attIter] * 10) {
+                    maxValues[attIter] = data.get(dataIter, attIter) / 10;
                 }
             }
         }
         this.maxVelocity = maxValues;
     }
+
+    /**
+     * Sets the convergence policy deciding when to stop iterating
+     * @param convergence the convergence policy
+     */
+    public void setConvergence(Convergence convergence) {
+        this.convergence = convergence;
+    }
+
+    /**
+     * Sets how the initial positions of the particles are picked
+     * @param seeding the seeding method
+     */
+    public void setSeeding(Seeding seeding) {
+        this.seeding = seeding;
+    }
+
+    /**
+     * Sets the seed used to pick the initial positions and velocities and the random factors of every update
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Sets the number of rows in the stratified sample particles are evaluated on
+     * @param sampleSize the starting sample size, 0 evaluates every row
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Sets the number of threads evaluating the particles
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,115 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * DB-Scan clustering spread over several threads
+ * Core points are found in parallel, then every core point unions itself with its core neighbours in a
+ * concurrent union-find instead of growing clusters one frontier at a time; the remaining points are
+ * assigned to the nearest cluster center in a final parallel pass
+ * Clusters are numbered by their smallest core point, so the labels are the same as DBScan's
+ */
+public class ParallelDBScan extends DBScan{
+
+    /**
+     * Number of rows handled by one fork/join task
+     */
+    private static final int BLOCK_SIZE = 1024;
+
+    /**
+     * Number of threads
+     */
+    private int numThreads = Driver.numThreads;
+
+    /**
+     * DB-Scan clustering
+     * @param data dataset to cluster
+     * @param numClusters not used
+     */
+    @Override
+    public int[] cluster(Dataset data, int numClusters){
+        this.data = data;
+        estimateTheta(data, this.numThreads);
+        this.index = getIndex(data, this.numThreads);
+        int numBlocks = BlockAction.getNumBlocks(data.getNumRows(), BLOCK_SIZE);
+        int[] dbLabels = new int[data.getNumRows()]; //0 = noise, 1 = boarder, 2 = core
+        ConcurrentUnionFind sets = new ConcurrentUnionFind(data.getNumRows());
+
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try{
+            //label core points, stop counting once a point is a core
+            pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                int[] counted = new int[1];
+                for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                    counted[0] = 0;
+                    if(this.index.forEachNeighbour(dataIter, (neighbour) -> ++counted[0] < this.minPts) >= this.minPts){
+                        dbLabels[dataIter] = 2;
+                    }
+                }
+            }));
+
+            //join every core point with the core points within theta of it, each pair once
+            pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                    if(dbLabels[dataIter] == 2){
+                        int row = dataIter;
+                        this.index.forEachNeighbour(dataIter, (neighbour) -> {
+                            if(neighbour > row && dbLabels[neighbour] == 2){
+                                sets.union(row, neighbour);
+                            }
+                            return true;
+                        });
+                    }
+                }
+            }));
+
+            //label border points, only the core labels are read so the order does not matter
+            pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                    if(dbLabels[dataIter] != 2){
+                        int row = dataIter;
+                        this.index.forEachNeighbour(dataIter, (neighbour) -> {
+                            if(dbLabels[neighbour] == 2){
+                                dbLabels[row] = 1;
+                                return false;
+                            }
+                            return true;
+                        });
+                    }
+                }
+            }));
+
+            //number the clusters in order of their smallest core point, the root of each set
+            this.dbPoints = new DB_point[data.getNumRows()];
+            int[] clusterNums = new int[data.getNumRows()];
+            int clusterNum = 0;
+            for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+                this.dbPoints[dataIter] = new DB_point(dataIter, dbLabels[dataIter]);
+                if(dbLabels[dataIter] == 2){
+                    int root = sets.find(dataIter);
+                    if(root == dataIter){
+                        clusterNums[dataIter] = clusterNum++;
+                    }
+                    this.dbPoints[dataIter].setCluster(clusterNums[root]);
+                }
+            }
+
+            //add non core points to cluster with closest center
+            double[] centers = getCenters(clusterNum);
+            int numCenters = clusterNum;
+            pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                assignToNearestCenter(blockIter * BLOCK_SIZE, Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE), centers, numCenters);
+            }));
+        }
+        finally{
+            pool.shutdown();
+        }
+        return getLabels();
+    }
+
+    /**
+     * Sets the number of threads
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+}
@@ -0,0 +1,273 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Chooses the initial centroids of a centroid based clustering algorithm
+ * random: every attribute of every centroid is copied from an independently chosen random row (the original seeding)
+ * kmpp: k-means++, each centroid is a row chosen with probability proportional to its squared distance to the
+ * nearest centroid chosen so far
+ * kmll: k-means||, a few rounds oversample many candidate rows in parallel with the same probabilities, then
+ * k-means++ weighted by how many rows are closest to each candidate picks the centroids from the candidates
+ */
+public class Seeding {
+
+    /**
+     * The names of the seeding methods
+     */
+    public static final String RANDOM = "random";
+    public static final String KMEANS_PLUS_PLUS = "kmpp";
+    public static final String KMEANS_PARALLEL = "kmll";
+
+    /**
+     * Number of rows handled by one fork/join task of k-means||, fixed so the result does not
+     * depend on the number of threads
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Number of sampling rounds of k-means||
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * The seeding method, one of RANDOM, KMEANS_PLUS_PLUS, KMEANS_PARALLEL
+     */
+    private final String method;
+
+    /**
+     * Number of threads used by k-means||
+     */
+    private int numThreads = Driver.numThreads;
+
+    /**
+     * Constructor
+     * @param method the seeding method, one of RANDOM, KMEANS_PLUS_PLUS, KMEANS_PARALLEL
+     */
+    public Seeding(String method){
+        if(!isMethod(method)) throw new IllegalArgumentException("Unknown seeding method " + method);
+        this.method = method;
+    }
+
+    /**
+     * Checks if a name is one of the seeding methods
+     * @param method the name
+     * @return true if the name is a seeding method
+     */
+    public static boolean isMethod(String method){
+        return RANDOM.equals(method) || KMEANS_PLUS_PLUS.equals(method) || KMEANS_PARALLEL.equals(method);
+    }
+
+    /**
+     * Chooses the initial centroids
+     * @param data the data set
+     * @param numClusters the number of centroids
+     * @param random the random number generator
+     * @return numClusters new centroids
+     */
+    public double[][] initCentroids(Dataset data, int numClusters, Random random){
+        switch(this.method){
+            case KMEANS_PLUS_PLUS:
+                return this.kMeansPlusPlus(data, numClusters, random);
+            case KMEANS_PARALLEL:
+                return this.kMeansParallel(data, numClusters, random);
+            default:
+                return this.randomAttributes(data, numClusters, random);
+        }
+    }
+
+    /**
+     * initializes every attribute of every centroid from a random datapoint
+     */
+    private double[][] randomAttributes(Dataset data, int numClusters, Random random){
+        double[][] centroids = new double[numClusters][data.getNumAttrs()];
+        for (int centIter = 0; centIter < numClusters; centIter++) {
+            for (int attrIter = 0; attrIter < data.getNumAttrs(); attrIter++) {
+                centroids[centIter][attrIter] = data.get(random.nextInt(data.getNumRows()), attrIter);
+            }
+        }
+        return centroids;
+    }
+
+    /**
+     * picks each centroid from the datapoints with probability proportional to the squared distance
+     * to the nearest centroid picked so far
+     */
+    private double[][] kMeansPlusPlus(Dataset data, int numClusters, Random random){
+        double[][] centroids = new double[numClusters][];
+        centroids[0] = data.getRow(random.nextInt(data.getNumRows()), new double[data.getNumAttrs()]);
+        //[i] holds the squared distance from row i to its nearest centroid so far
+        double[] minDistances = new double[data.getNumRows()];
+        Arrays.fill(minDistances, Double.MAX_VALUE);
+
+        for (int centIter = 1; centIter < numClusters; centIter++) {
+            double total = 0;
+            for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+                minDistances[dataIter] = Math.min(minDistances[dataIter], data.distanceSquared(dataIter, centroids[centIter - 1]));
+                total += minDistances[dataIter];
+            }
+            int row = pickWeighted(minDistances, total, random);
+            centroids[centIter] = data.getRow(row, new double[data.getNumAttrs()]);
+        }
+        return centroids;
+    }
+
+    /**
+     * oversamples candidate centroids in a few parallel rounds, then reduces them to numClusters
+     * centroids with k-means++ weighted by the number of datapoints closest to each candidate
+     */
+    private double[][] kMeansParallel(Dataset data, int numClusters, Random random){
+        int numBlocks = BlockAction.getNumBlocks(data.getNumRows(), BLOCK_SIZE);
+        //expected number of candidates sampled per round
+        double oversampling = 2.0 * numClusters;
+        ArrayList<double[]> candidates = new ArrayList<>();
+        candidates.add(data.getRow(random.nextInt(data.getNumRows()), new double[data.getNumAttrs()]));
+        //[i] holds the squared distance from row i to its nearest candidate, [i] of nearest holds that candidate
+        double[] minDistances = new double[data.getNumRows()];
+        int[] nearest = new int[data.getNumRows()];
+        Arrays.fill(minDistances, Double.MAX_VALUE);
+
+        ForkJoinPool pool = new ForkJoinPool(this.numThreads);
+        try{
+            double[] blockCosts = new double[numBlocks];
+            //[b] holds the rows block b picked this round, the first blockPickCounts[b] of them
+            int[][] blockPicks = new int[numBlocks][];
+            int[] blockPickCounts = new int[numBlocks];
+            for (int blockIter = 0; blockIter < numBlocks; blockIter++) {
+                blockPicks[blockIter] = new int[Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE) - blockIter * BLOCK_SIZE];
+            }
+            int firstNew = 0;
+            for (int roundIter = 0; roundIter <= ROUNDS; roundIter++) {
+                //update the distances against the candidates added last round and sum the cost per block
+                double[][] newCandidates = candidates.subList(firstNew, candidates.size()).toArray(new double[0][]);
+                int offset = firstNew;
+                pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                    double cost = 0;
+                    for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                        for (int candIter = 0; candIter < newCandidates.length; candIter++) {
+                            double distance = data.distanceSquared(dataIter, newCandidates[candIter]);
+                            if (distance < minDistances[dataIter]) {
+                                minDistances[dataIter] = distance;
+                                nearest[dataIter] = offset + candIter;
+                            }
+                        }
+                        cost += minDistances[dataIter];
+                    }
+                    blockCosts[blockIter] = cost;
+                }));
+                if (roundIter == ROUNDS) break;
+
+                //sample every row independently, each block with its own generator so the picks do not depend on the threads
+                double totalCost = 0;
+                for (double blockCost: blockCosts) {
+                    totalCost += blockCost;
+                }
+                if (totalCost == 0) break;
+                double scale = oversampling / totalCost;
+                long roundSeed = random.nextLong();
+                pool.invoke(new BlockAction(0, numBlocks, (blockIter) -> {
+                    Random blockRandom = new Random(roundSeed + blockIter);
+                    int[] picks = blockPicks[blockIter];
+                    int numPicks = 0;
+                    for (int dataIter = blockIter * BLOCK_SIZE; dataIter < Math.min(data.getNumRows(), (blockIter + 1) * BLOCK_SIZE); dataIter++) {
+                        if (blockRandom.nextDouble() < scale * minDistances[dataIter]) {
+                            picks[numPicks++] = dataIter;
+                        }
+                    }
+                    blockPickCounts[blockIter] = numPicks;
+                }));
+                firstNew = candidates.size();
+                for (int blockIter = 0; blockIter < numBlocks; blockIter++) {
+                    for (int pickIter = 0; pickIter < blockPickCounts[blockIter]; pickIter++) {
+                        candidates.add(data.getRow(blockPicks[blockIter][pickIter], new double[data.getNumAttrs()]));
+                    }
+                }
+            }
+        }
+        finally{
+            pool.shutdown();
+        }
+
+        //weight every candidate by the number of rows closest to it
+        double[] weights = new double[candidates.size()];
+        for (int dataIter = 0; dataIter < data.getNumRows(); dataIter++) {
+            weights[nearest[dataIter]]++;
+        }
+        return weightedKMeansPlusPlus(candidates, weights, numClusters, random);
+    }
+
+    /**
+     * k-means++ over a small set of weighted points, a point's probability is also scaled by its weight
+     */
+    private static double[][] weightedKMeansPlusPlus(ArrayList<double[]> points, double[] weights, int numClusters, Random random){
+        double[][] centroids = new double[numClusters][];
+        double[] minDistances = new double[points.size()];
+        Arrays.fill(minDistances, Double.MAX_VALUE);
+        double[] scores = new double[points.size()];
+        double totalWeight = 0;
+        for (double weight: weights) {
+            totalWeight += weight;
+        }
+        centroids[0] = points.get(pickWeighted(weights, totalWeight, random)).clone();
+
+        for (int centIter = 1; centIter < numClusters; centIter++) {
+            double total = 0;
+            for (int pointIter = 0; pointIter < points.size(); pointIter++) {
+                minDistances[pointIter] = Math.min(minDistances[pointIter], distanceSquared(points.get(pointIter), centroids[centIter - 1]));
+                scores[pointIter] = weights[pointIter] * minDistances[pointIter];
+                total += scores[pointIter];
+            }
+            centroids[centIter] = points.get(pickWeighted(scores, total, random)).clone();
+        }
+        return centroids;
+    }
+
+    /**
+     * picks an index with probability proportional to its weight, uniformly if every weight is zero
+     */
+    private static int pickWeighted(double[] weights, double total, Random random){
+        if (!(total > 0)) {
+            return random.nextInt(weights.length);
+        }
+        double target = random.nextDouble() * total;
+        int last = 0;
+        for (int weightIter = 0; weightIter < weights.length; weightIter++) {
+            if (weights[weightIter] > 0) {
+                last = weightIter;
+                target -= weights[weightIter];
+                if (target < 0) return weightIter;
+            }
+        }
+        //rounding left a little of the total, so take the last index with any weight
+        return last;
+    }
+
+    /**
+     * squared euclidean distance between two points
+     */
+    private static double distanceSquared(double[] first, double[] second){
+        double sum = 0;
+        for (int dimIter = 0; dimIter < first.length; dimIter++) {
+            double diff = first[dimIter] - second[dimIter];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the name of the seeding method
+     * @return the seeding method
+     */
+    public String getMethod(){
+        return this.method;
+    }
+
+    /**
+     * Sets the number of threads used by k-means||
+     * @param numThreads the number of threads
+     */
+    public void setNumThreads(int numThreads){
+        this.numThreads = numThreads;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Answers fixed-radius neighbourhood queries over the rows of a data set
+ * A row is a neighbour of another if their squared distance is at most the squared radius,
+ * so every row is its own neighbour
+ */
+public interface SpatialIndex {
+
+    /**
+     * The names of the index types
+     */
+    String AUTO = "auto";
+    String GRID = "grid";
+    String KD_TREE = "kdtree";
+    String LINEAR = "linear";
+
+    /**
+     * Grids are only used up to this many attributes, as a query scans 3^numAttrs cells
+     */
+    int MAX_GRID_ATTRS = 4;
+
+    /**
+     * Visits the neighbours of a row, in no particular order
+     * @param row the index of the row
+     * @param visitor called for each neighbour until it returns false
+     * @return the number of neighbours visited
+     */
+    int forEachNeighbour(int row, Visitor visitor);
+
+    /**
+     * Receives the neighbours found by a query
+     */
+    interface Visitor {
+
+        /**
+         * Receives one neighbour
+         * @param neighbour the index of the neighbouring row
+         * @return true to keep visiting neighbours, false to stop the query
+         */
+        boolean visit(int neighbour);
+    }
+
+    /**
+     * Checks if a name is one of the index types
+     * @param type the name
+     * @return true if the name is an index type
+     */
+    static boolean isType(String type){
+        return AUTO.equals(type) || GRID.equals(type) || KD_TREE.equals(type) || LINEAR.equals(type);
+    }
+
+    /**
+     * Builds an index over a data set
+     * @param data the data set
+     * @param radius the query radius
+     * @param type the index type; AUTO picks a grid for few attributes and a k-d tree otherwise
+     * @return the index
+     */
+    static SpatialIndex create(Dataset data, double radius, String type){
+        switch(type){
+            case GRID:
+                return new GridIndex(data, radius);
+            case KD_TREE:
+                return new KDTree(data, radius);
+            case LINEAR:
+                return new LinearScan(data, radius);
+            default:
+                if(radius > 0 && data.getNumAttrs() <= MAX_GRID_ATTRS){
+                    return new GridIndex(data, radius);
+                }
+                return new KDTree(data, radius);
+        }
+    }
+}
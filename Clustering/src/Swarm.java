@@ -0,0 +1,183 @@
+import java.util.Arrays;
+
+/**
+ * The state of a whole PSO swarm as structure of arrays
+ * Every quantity is one flat array over the swarm, particle p's centroid c starting at
+ * (p * numClusters + c) * numAttrs, so the update kernels stream through contiguous memory
+ * The personal and global bests are copies taken when they are found, never views of the positions that keep moving
+ */
+public class Swarm {
+
+    private final int numParticles;
+    private final int numClusters;
+    private final int numAttrs;
+
+    /**
+     * Number of entries per particle, numClusters * numAttrs
+     */
+    private final int stride;
+
+    //the current position and velocity of every particle
+    private final double[] positions;
+    private final double[] velocities;
+    //the position of the best fitness of every particle so far
+    private final double[] bestPositions;
+    //the best fitness of every particle so far
+    private final double[] bestFitnesses;
+    //the position of the best fitness of the whole swarm so far
+    private final double[] globalBestPosition;
+    private double globalBestFitness = Double.MAX_VALUE;
+
+    /**
+     * Constructor, every particle starts at the origin with no fitness
+     * @param numParticles the number of particles
+     * @param numClusters the number of centroids per particle
+     * @param numAttrs the number of attributes per centroid
+     */
+    public Swarm(int numParticles, int numClusters, int numAttrs){
+        this.numParticles = numParticles;
+        this.numClusters = numClusters;
+        this.numAttrs = numAttrs;
+        this.stride = numClusters * numAttrs;
+        this.positions = new double[numParticles * this.stride];
+        this.velocities = new double[numParticles * this.stride];
+        this.bestPositions = new double[numParticles * this.stride];
+        this.bestFitnesses = new double[numParticles];
+        this.globalBestPosition = new double[this.stride];
+        Arrays.fill(this.bestFitnesses, Double.MAX_VALUE);
+    }
+
+    /**
+     * Sets the starting position and velocity of a particle, its best position starts as a copy of the position
+     * @param particle the particle
+     * @param position [centroid][attribute] position
+     * @param velocity [centroid][attribute] velocity
+     */
+    public void setParticle(int particle, double[][] position, double[][] velocity){
+        int offset = this.getOffset(particle);
+        for (int centIter = 0; centIter < position.length; centIter++) {
+            System.arraycopy(position[centIter], 0, this.positions, offset + centIter * this.numAttrs, this.numAttrs);
+            System.arraycopy(velocity[centIter], 0, this.velocities, offset + centIter * this.numAttrs, this.numAttrs);
+        }
+        System.arraycopy(this.positions, offset, this.bestPositions, offset, this.stride);
+    }
+
+    /**
+     * Records the fitness of every particle and snapshots any new personal best
+     * Only a strictly better fitness replaces a best, so the result does not depend on how the fitnesses were computed
+     * @param newFitnesses [p] holds the fitness of particle p at its current position
+     */
+    public void recordFitnesses(double[] newFitnesses){
+        for (int particleIter = 0; particleIter < this.numParticles; particleIter++) {
+            double fitness = newFitnesses[particleIter];
+            if (fitness < this.bestFitnesses[particleIter]) {
+                int offset = this.getOffset(particleIter);
+                this.bestFitnesses[particleIter] = fitness;
+                System.arraycopy(this.positions, offset, this.bestPositions, offset, this.stride);
+            }
+        }
+    }
+
+    /**
+     * Replaces the best fitness of every particle, keeping the best positions, e.g. once the rows the
+     * fitnesses are estimated on have changed
+     * @param newBestFitnesses [p] holds the new best fitness of particle p
+     */
+    public void setBestFitnesses(double[] newBestFitnesses){
+        System.arraycopy(newBestFitnesses, 0, this.bestFitnesses, 0, this.numParticles);
+    }
+
+    /**
+     * Snapshots the current position of a particle as the global best if its fitness is strictly better
+     * @param particle the particle
+     * @param fitness the exact fitness of the particle at its current position
+     * @return true if the global best was replaced
+     */
+    public boolean offerGlobalBest(int particle, double fitness){
+        if (fitness < this.globalBestFitness) {
+            this.globalBestFitness = fitness;
+            System.arraycopy(this.positions, this.getOffset(particle), this.globalBestPosition, 0, this.stride);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves a particle: the velocity is pulled towards its personal best by phi1 and the global best by phi2,
+     * clamped to the max velocity of each attribute in either direction, and added to the position
+     * @param particle the particle
+     * @param phi1 the weight of the personal best
+     * @param phi2 the weight of the global best
+     * @param inertia the weight of the old velocity
+     * @param maxVelocity [a] holds the max velocity for attribute a
+     */
+    public void move(int particle, double phi1, double phi2, double inertia, double[] maxVelocity){
+        int offset = this.getOffset(particle);
+        for (int entryIter = 0; entryIter < this.stride; entryIter += this.numAttrs) {
+            for (int attrIter = 0; attrIter < this.numAttrs; attrIter++) {
+                int index = offset + entryIter + attrIter;
+                double position = this.positions[index];
+                double velocity = inertia * this.velocities[index]
+                        + phi1 * (this.bestPositions[index] - position)
+                        + phi2 * (this.globalBestPosition[entryIter + attrIter] - position);
+                //clamp to avoid runaway velocities
+                velocity = Math.max(-maxVelocity[attrIter], Math.min(maxVelocity[attrIter], velocity));
+                this.velocities[index] = velocity;
+                this.positions[index] = position + velocity;
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the first entry of a particle in the flat arrays
+     * @param particle the particle
+     * @return the offset of the particle
+     */
+    public int getOffset(int particle){
+        return particle * this.stride;
+    }
+
+    /**
+     * Gets the current positions of all particles, particle p's centroid c starting at getOffset(p) + c * numAttrs
+     * @return the flat positions, not a copy
+     */
+    public double[] getPositions(){
+        return this.positions;
+    }
+
+    /**
+     * Gets the personal best positions of all particles, laid out like the positions
+     * @return the flat best positions, not a copy
+     */
+    public double[] getBestPositions(){
+        return this.bestPositions;
+    }
+
+    /**
+     * Gets the global best position, centroid c starting at c * numAttrs
+     * @return the flat global best position, not a copy
+     */
+    public double[] getGlobalBestPosition(){
+        return this.globalBestPosition;
+    }
+
+    /**
+     * Gets the best fitness of the whole swarm so far
+     * @return the global best fitness
+     */
+    public double getGlobalBestFitness(){
+        return this.globalBestFitness;
+    }
+
+    /**
+     * Gets the centroids of the global best position
+     * @return [centroid][attribute] copy of the global best position
+     */
+    public double[][] getGlobalBestCentroids(){
+        double[][] centroids = new double[this.numClusters][this.numAttrs];
+        for (int centIter = 0; centIter < centroids.length; centIter++) {
+            System.arraycopy(this.globalBestPosition, centIter * this.numAttrs, centroids[centIter], 0, this.numAttrs);
+        }
+        return centroids;
+    }
+}
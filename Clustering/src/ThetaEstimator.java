@@ -0,0 +1,123 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Estimates the DB-Scan distance threshold theta from the k-distance curve of a sample of rows
+ * The k-distance of a row is the distance to its k-th nearest other row; sorted, the k-distances of a sample
+ * rise slowly through the clusters and steeply through the noise, and the knee between the two is the estimate
+ * With k = minPoints - 1, a row is a core point exactly when its k-distance is at most theta
+ */
+public class ThetaEstimator {
+
+    /**
+     * Number of sampled rows
+     */
+    public static final int SAMPLE_SIZE = 1000;
+
+    /**
+     * Number of sampled rows handled by one fork/join task
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * The sorted k-distances of the sampled rows
+     */
+    private final double[] kDistances;
+
+    /**
+     * The index of the knee in kDistances
+     */
+    private final int knee;
+
+    /**
+     * Computes the k-distances of a random sample of rows against every row with a k-d tree and finds the knee
+     * @param data the data set
+     * @param k which nearest neighbour to take the distance to, at least 1
+     * @param random picks the sample
+     * @param numThreads the number of threads
+     */
+    public ThetaEstimator(Dataset data, int k, Random random, int numThreads){
+        int numSamples = Math.min(SAMPLE_SIZE, data.getNumRows());
+        int numNeighbours = Math.max(1, Math.min(k, data.getNumRows() - 1));
+        int[] sample = new int[numSamples];
+        for (int sampleIter = 0; sampleIter < numSamples; sampleIter++) {
+            sample[sampleIter] = random.nextInt(data.getNumRows());
+        }
+
+        this.kDistances = new double[numSamples];
+        KDTree tree = new KDTree(data, 0);
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try{
+            pool.invoke(new BlockAction(0, BlockAction.getNumBlocks(numSamples, BLOCK_SIZE), (blockIter) -> {
+                double[] nearest = new double[numNeighbours];
+                for (int sampleIter = blockIter * BLOCK_SIZE; sampleIter < Math.min(numSamples, (blockIter + 1) * BLOCK_SIZE); sampleIter++) {
+                    this.kDistances[sampleIter] = Math.sqrt(tree.getKDistanceSquared(sample[sampleIter], nearest));
+                }
+            }));
+        }
+        finally{
+            pool.shutdown();
+        }
+        Arrays.sort(this.kDistances);
+        this.knee = findKnee(this.kDistances);
+    }
+
+    /**
+     * Finds the knee of k-distances that are already known, e.g. those of every row
+     * @param kDistancesSquared the squared k-distances, not modified
+     */
+    public ThetaEstimator(double[] kDistancesSquared){
+        this.kDistances = new double[kDistancesSquared.length];
+        for (int sampleIter = 0; sampleIter < this.kDistances.length; sampleIter++) {
+            this.kDistances[sampleIter] = Math.sqrt(kDistancesSquared[sampleIter]);
+        }
+        Arrays.sort(this.kDistances);
+        this.knee = findKnee(this.kDistances);
+    }
+
+    /**
+     * finds the point of a rising sorted curve that lies furthest below the straight line from its first
+     * to its last point, after scaling both axes to [0, 1]
+     */
+    private static int findKnee(double[] curve) {
+        if (curve.length < 3) return curve.length - 1;
+        double range = curve[curve.length - 1] - curve[0];
+        if (!(range > 0)) return curve.length - 1;
+        int knee = curve.length - 1;
+        double maxGap = 0;
+        for (int pointIter = 0; pointIter < curve.length; pointIter++) {
+            double x = (double) pointIter / (curve.length - 1);
+            double y = (curve[pointIter] - curve[0]) / range;
+            if (x - y > maxGap) {
+                maxGap = x - y;
+                knee = pointIter;
+            }
+        }
+        return knee;
+    }
+
+    /**
+     * Gets the estimated theta, the k-distance at the knee
+     * @return the estimated theta
+     */
+    public double getTheta(){
+        return this.kDistances[this.knee];
+    }
+
+    /**
+     * Gets the share of sampled rows whose k-distance is at most the estimate, roughly the share of core points
+     * @return the share of sampled rows at or below the knee
+     */
+    public double getCoreFraction(){
+        return (this.knee + 1.0) / this.kDistances.length;
+    }
+
+    /**
+     * Gets the number of sampled rows
+     * @return the number of sampled rows
+     */
+    public int getNumSamples(){
+        return this.kDistances.length;
+    }
+}